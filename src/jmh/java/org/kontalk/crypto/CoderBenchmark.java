@@ -0,0 +1,172 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.bcpg.sig.KeyFlags;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPKeyRingGenerator;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketVector;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.bc.BcPBESecretKeyEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider;
+import org.bouncycastle.openpgp.operator.bc.BcPGPKeyPair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encryption and decryption of message and attachment data.
+ * The key ring is generated once per trial, key generation is not measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CoderBenchmark {
+
+    private static final String UID = "Benchmark <benchmark@kontalk.test>";
+    private static final char[] PASSPHRASE = "benchmark".toCharArray();
+
+    // 256 byte: chat message, 64KB: small attachment
+    @Param({"256", "65536"})
+    public int size;
+
+    private PersonalKey mMyKey;
+    private List<PGPUtils.PGPCoderKey> mReceiverKeys;
+    private byte[] mPlainData;
+    private byte[] mEncryptedData;
+
+    @Setup
+    public void setup() throws Exception {
+        PGPUtils.registerProvider();
+
+        PGPKeyRingGenerator ringGen = createKeyRing();
+        mMyKey = PersonalKey.load(ringGen.generateSecretKeyRing().getEncoded(), PASSPHRASE);
+        // encrypt for ourself, the receiver key is only needed for its public part
+        PGPUtils.PGPCoderKey receiverKey =
+                PGPUtils.readPublicKey(ringGen.generatePublicKeyRing().getEncoded())
+                .orElseThrow(() -> new IllegalStateException("can't read public key"));
+        mReceiverKeys = Collections.singletonList(receiverKey);
+
+        mPlainData = new byte[size];
+        // not too random, attachments and text are compressed before encryption
+        Random random = new Random(42);
+        for (int i = 0; i < mPlainData.length; i++)
+            mPlainData[i] = (byte) ('a' + random.nextInt(26));
+
+        mEncryptedData = this.encrypt();
+    }
+
+    @Benchmark
+    public byte[] encryptAndSign() throws IOException, PGPException {
+        return this.encrypt();
+    }
+
+    @Benchmark
+    public byte[] decryptAndVerify() throws IOException, PGPException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        Decryptor.DecryptionResult result = Decryptor.decryptAndVerify(
+                new ByteArrayInputStream(mEncryptedData),
+                out,
+                mMyKey.getPrivateEncryptionKey(),
+                Optional.of(mReceiverKeys.get(0).signKey));
+        if (!result.errors.isEmpty())
+            throw new IllegalStateException("decryption errors: "+result.errors);
+        return out.toByteArray();
+    }
+
+    private byte[] encrypt() throws IOException, PGPException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        Encryptor.encryptAndSign(new ByteArrayInputStream(mPlainData), out,
+                mMyKey, mReceiverKeys);
+        return out.toByteArray();
+    }
+
+    /**
+     * Key ring with the same layout as the one created by the server:
+     * master key for authentication, sub keys for signing and encryption.
+     */
+    private static PGPKeyRingGenerator createKeyRing() throws PGPException {
+        RSAKeyPairGenerator keyGen = new RSAKeyPairGenerator();
+        keyGen.init(new RSAKeyGenerationParameters(BigInteger.valueOf(0x10001),
+                new SecureRandom(), 2048, 12));
+        Date now = new Date();
+        PGPKeyPair authKey = new BcPGPKeyPair(PublicKeyAlgorithmTags.RSA_GENERAL,
+                keyGen.generateKeyPair(), now);
+        PGPKeyPair signKey = new BcPGPKeyPair(PublicKeyAlgorithmTags.RSA_GENERAL,
+                keyGen.generateKeyPair(), now);
+        PGPKeyPair encryptKey = new BcPGPKeyPair(PublicKeyAlgorithmTags.RSA_GENERAL,
+                keyGen.generateKeyPair(), now);
+
+        PGPDigestCalculator sha1Calc = new BcPGPDigestCalculatorProvider()
+                .get(HashAlgorithmTags.SHA1);
+        PGPKeyRingGenerator ringGen = new PGPKeyRingGenerator(
+                PGPSignature.POSITIVE_CERTIFICATION,
+                authKey,
+                UID,
+                sha1Calc,
+                keyFlags(KeyFlags.CERTIFY_OTHER | KeyFlags.AUTHENTICATION),
+                null,
+                new BcPGPContentSignerBuilder(PublicKeyAlgorithmTags.RSA_GENERAL,
+                        HashAlgorithmTags.SHA256),
+                new BcPBESecretKeyEncryptorBuilder(SymmetricKeyAlgorithmTags.AES_256,
+                        sha1Calc).build(PASSPHRASE));
+        ringGen.addSubKey(signKey, keyFlags(KeyFlags.SIGN_DATA), null);
+        ringGen.addSubKey(encryptKey,
+                keyFlags(KeyFlags.ENCRYPT_COMMS | KeyFlags.ENCRYPT_STORAGE), null);
+        return ringGen;
+    }
+
+    private static PGPSignatureSubpacketVector keyFlags(int flags) {
+        PGPSignatureSubpacketGenerator gen = new PGPSignatureSubpacketGenerator();
+        gen.setKeyFlags(false, flags);
+        return gen.generate();
+    }
+}
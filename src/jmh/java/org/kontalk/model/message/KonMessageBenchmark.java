@@ -0,0 +1,110 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.model.message;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.kontalk.misc.JID;
+import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.kontalk.model.chat.Chat;
+import org.kontalk.persistence.Config;
+import org.kontalk.persistence.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Loading all messages of one chat from the database, like on startup.
+ * Uses a fresh application directory in the temp dir for every fork.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+// model and config are singletons, every fork gets its own database
+@Fork(1)
+@State(Scope.Benchmark)
+public class KonMessageBenchmark {
+
+    @Param({"1000"})
+    public int messages;
+
+    private Path mAppDir;
+    private Database mDB;
+    private Chat mChat;
+    private final Map<Integer, Contact> mContactMap = new HashMap<>();
+
+    @Setup
+    public void setup() throws Exception {
+        mAppDir = Files.createTempDirectory("kontalk_jmh");
+        Config.initialize(mAppDir);
+        mDB = new Database(mAppDir);
+        Model model = Model.setup(mDB, mAppDir);
+
+        Contact contact = model.contacts()
+                .create(JID.bare("benchmark@kontalk.test"), "Benchmark")
+                .orElseThrow(() -> new IllegalStateException("can't create contact"));
+        mContactMap.put(contact.getID(), contact);
+        mChat = model.chats().getOrCreate(contact);
+
+        List<Contact> receivers = Collections.singletonList(contact);
+        mDB.batch(() -> {
+            for (int i = 0; i < messages; i++) {
+                model.createOutMessage(mChat, receivers,
+                        MessageContent.plainText("benchmark message number " + i));
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDB.close();
+        FileUtils.deleteQuietly(mAppDir.toFile());
+    }
+
+    @Benchmark
+    public void load(Blackhole bh) throws SQLException {
+        try (ResultSet messageRS = mDB.execSelectWhereInsecure(KonMessage.TABLE,
+                KonMessage.COL_CHAT_ID + " == " + mChat.getID())) {
+            while (messageRS.next()) {
+                bh.consume(KonMessage.load(messageRS, mChat, mContactMap));
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.model.message;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of message content as stored in the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageContentBenchmark {
+
+    private static final String TEXT = "Hey, did you see the photos from last "
+            + "weekend? I uploaded them here: https://example.org/photos/42 :)";
+
+    private MessageContent mContent;
+    private byte[] mBytes;
+    private String mLegacyJSON;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        mContent = MessageContent.outgoing(TEXT,
+                MessageContent.Attachment.outgoing(Paths.get("photo.jpg"), "image/jpeg"));
+        mBytes = mContent.toBytes();
+
+        // content encoding of database versions before 6
+        JSONObject attachment = new JSONObject();
+        attachment.put("url", URI.create("https://example.org/upload/photo.jpg").toString());
+        attachment.put("mime_type", "image/jpeg");
+        attachment.put("length", 123456L);
+        attachment.put("file_name", "photo.jpg");
+        attachment.put("encryption", 0);
+        attachment.put("signing", 0);
+        attachment.put("coder_errors", 0);
+        JSONObject json = new JSONObject();
+        json.put("plain_text", TEXT);
+        json.put("encrypted_content", "");
+        json.put("attachment", attachment.toJSONString());
+        mLegacyJSON = json.toJSONString();
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return mContent.toBytes();
+    }
+
+    @Benchmark
+    public MessageContent fromBytes() {
+        return MessageContent.fromBytes(mBytes);
+    }
+
+    @Benchmark
+    public MessageContent fromJSONString() {
+        return MessageContent.fromJSONString(mLegacyJSON);
+    }
+}
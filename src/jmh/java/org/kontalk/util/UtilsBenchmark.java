@@ -0,0 +1,82 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.util;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import org.kontalk.crypto.Coder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Utility methods used on every message load and for every image preview.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class UtilsBenchmark {
+
+    // a typical value for Config.NET_MAX_IMG_SIZE
+    private static final int MAX_IMG_PIXELS = 1024 * 768;
+
+    private int mErrors;
+    private BufferedImage mImage;
+
+    @Setup
+    public void setup() {
+        mErrors = EncodingUtils.enumSetToInt(EnumSet.of(
+                Coder.Error.INVALID_SIGNATURE_DATA,
+                Coder.Error.KEY_UNAVAILABLE,
+                Coder.Error.UNKNOWN_ERROR));
+
+        // camera photo size
+        mImage = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = mImage.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.RED, 1920, 1080, Color.BLUE));
+        g.fillRect(0, 0, 1920, 1080);
+        g.dispose();
+    }
+
+    @Benchmark
+    public EnumSet<Coder.Error> intToEnumSet() {
+        return EncodingUtils.intToEnumSet(Coder.Error.class, mErrors);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BufferedImage scale() {
+        return MediaUtils.scale(mImage, MAX_IMG_PIXELS);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.view;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering work done for every message and contact in list views.
+ * Runs headless, no components are created.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class ViewBenchmark {
+
+    private static final String TEXT = "Meeting notes are at https://example.org/notes?id=7 "
+            + "and the slides at www.example.com/slides#page2, "
+            + "see you tomorrow at 10, bring coffee! ";
+
+    // avatar size in chat and contact list
+    @Param({"40"})
+    public int avatarSize;
+
+    private String mText;
+    private StyledDocument mDoc;
+
+    @Setup
+    public void setup() {
+        // a long message with a few links
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10; i++)
+            sb.append(TEXT);
+        mText = sb.toString();
+        mDoc = new DefaultStyledDocument();
+    }
+
+    @Benchmark
+    public StyledDocument linkify() {
+        LinkUtils.linkify(mDoc, mText);
+        return mDoc;
+    }
+
+    /** Rendering only, {@link AvatarLoader#loadFallback} caches the result. */
+    @Benchmark
+    public AvatarLoader.AvatarImg fallbackAvatar() {
+        return AvatarLoader.fallback("K", Color.ORANGE, avatarSize);
+    }
+}
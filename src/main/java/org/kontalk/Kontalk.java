@@ -41,6 +41,7 @@ import org.apache.commons.lang.SystemUtils;
 import org.kontalk.crypto.PGPUtils;
 import org.kontalk.misc.KonException;
 import org.kontalk.system.Control;
+import org.kontalk.system.MessageHandler;
 import org.kontalk.util.CryptoUtils;
 import org.kontalk.util.EncodingUtils;
 import org.kontalk.util.Tr;
@@ -57,6 +58,9 @@ public final class Kontalk {
     private final Path mAppDir;
     private ServerSocket mRunLock = null;
 
+    private MessageHandler mMessageHandler = null;
+    private int mWorkers = 1;
+
     Kontalk() {
         // platform dependent configuration directory
         this(Paths.get(System.getProperty("user.home"),
@@ -67,6 +71,12 @@ public final class Kontalk {
         mAppDir = appDir.toAbsolutePath();
     }
 
+    /** Run without user interface and pass new messages to this handler. */
+    void setMessageHandler(MessageHandler handler, int workers) {
+        mMessageHandler = handler;
+        mWorkers = workers;
+    }
+
     int start(boolean ui) {
         // check if already running
         int port = (1 << 14) + (1 << 15) + mAppDir.hashCode() % (1 << 14);
@@ -150,7 +160,11 @@ public final class Kontalk {
             }
         });
 
-        control.launch(ui);
+        if (!ui && mMessageHandler != null) {
+            control.launchHeadless(mMessageHandler, mWorkers);
+        } else {
+            control.launch(ui);
+        }
 
         return 0;
     }
@@ -184,6 +198,20 @@ public final class Kontalk {
                 .build()
         );
         options.addOption("c", "no-gui", false, "run without user interface");
+        options.addOption(Option.builder("m")
+                .argName("class")
+                .hasArg()
+                .longOpt("message-handler")
+                .desc("with --no-gui: class handling incoming messages")
+                .build()
+        );
+        options.addOption(Option.builder("w")
+                .argName("number")
+                .hasArg()
+                .longOpt("workers")
+                .desc("with --message-handler: number of handler threads")
+                .build()
+        );
 
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd;
@@ -204,6 +232,20 @@ public final class Kontalk {
                 new Kontalk(Paths.get(appDir)) :
                 new Kontalk();
 
+        if (cmd.hasOption("c") && cmd.hasOption("m")) {
+            MessageHandler handler = createHandler(cmd.getOptionValue("m"));
+            if (handler == null)
+                System.exit(6);
+            int workers;
+            try {
+                workers = Integer.parseInt(cmd.getOptionValue("w", "1"));
+            } catch (NumberFormatException ex) {
+                showHelp(options);
+                return;
+            }
+            app.setMessageHandler(handler, workers);
+        }
+
         int returnCode = app.start(!cmd.hasOption("c"));
         if (returnCode != 0)
             // didn't work
@@ -225,6 +267,18 @@ public final class Kontalk {
         }.start();
     }
 
+    private static MessageHandler createHandler(String className) {
+        try {
+            return Class.forName(className)
+                    .asSubclass(MessageHandler.class)
+                    .newInstance();
+        } catch (ClassNotFoundException | ClassCastException |
+                InstantiationException | IllegalAccessException ex) {
+            LOGGER.log(Level.SEVERE, "can't create message handler: "+className, ex);
+            return null;
+        }
+    }
+
     private static void showHelp(Options options) {
         HelpFormatter formatter = new HelpFormatter();
         String eol = EncodingUtils.EOL;
@@ -35,9 +35,11 @@ import org.kontalk.util.ClientUtils.MessageIDs;
 final class AcknowledgedListener implements StanzaListener {
     private static final Logger LOGGER = Logger.getLogger(AcknowledgedListener.class.getName());
 
+    private final Client mClient;
     private final Control mControl;
 
-    public AcknowledgedListener(Control control) {
+    public AcknowledgedListener(Client client, Control control) {
+        mClient = client;
         mControl = control;
     }
 
@@ -51,6 +53,8 @@ final class AcknowledgedListener implements StanzaListener {
         }
         Message m = (Message) p;
 
+        mClient.onAcknowledged(m);
+
         LOGGER.config("for message: "+m);
 
         if (DeliveryReceipt.from(m) != null) {
@@ -21,18 +21,24 @@ package org.kontalk.client;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.ExceptionCallback;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.filter.IQTypeFilter;
 import org.jivesoftware.smack.filter.StanzaFilter;
@@ -43,6 +49,9 @@ import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.roster.Roster;
 import org.jivesoftware.smack.roster.RosterEntry;
+import org.jivesoftware.smack.roster.RosterGroup;
+import org.jivesoftware.smack.roster.rosterstore.DirectoryRosterStore;
+import org.jivesoftware.smack.roster.rosterstore.RosterStore;
 import org.jivesoftware.smackx.caps.EntityCapsManager;
 import org.jivesoftware.smackx.caps.cache.SimpleDirectoryPersistentCache;
 import org.jivesoftware.smackx.chatstates.ChatState;
@@ -52,49 +61,87 @@ import org.jivesoftware.smackx.iqlast.packet.LastActivity;
 import org.kontalk.crypto.PersonalKey;
 import org.kontalk.misc.JID;
 import org.kontalk.misc.KonException;
+import org.kontalk.misc.Metrics;
 import org.kontalk.model.message.OutMessage;
 import org.kontalk.persistence.Config;
 import org.kontalk.system.AttachmentManager;
 import org.kontalk.system.Control;
 import org.kontalk.system.RosterHandler;
+import org.kontalk.system.Scheduler;
 
 /**
  * Network client for an XMPP Kontalk Server.
  *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
-public final class Client implements StanzaListener, Runnable {
+public final class Client implements StanzaListener {
     private static final Logger LOGGER = Logger.getLogger(Client.class.getName());
 
     private static final String CAPS_CACHE_DIR = "caps_cache";
-    private static final LinkedBlockingQueue<Task> TASK_QUEUE = new LinkedBlockingQueue<>();
+    private static final String DISCO_CACHE_FILE = "disco_cache.json";
+    private static final String ROSTER_STORE_DIR = "roster_store";
 
     public enum PresenceCommand {REQUEST, GRANT, DENY}
 
-    // NOTE: disconnect is instantaneous, all resulting exceptions should be catched
-    private enum Command {CONNECT, LAST_ACTIVITY}
+    public enum RosterCommand {ADD, REMOVE, UPDATE}
+
+    /** Connection phases for sending. */
+    private enum Phase {IDLE, CONNECTING, CONNECTED}
+
+    /** Maximum number of stanzas queued while connecting. */
+    private static final int MAX_OUTBOUND = 500;
 
     private final Control mControl;
 
+    // connecting and requests in background, in order
+    // NOTE: disconnect is instantaneous, all resulting exceptions should be catched
+    private final Executor mTaskQueue = Scheduler.getInstance().serial(Scheduler.Pool.NETWORK);
+
     private final KonMessageSender mMessageSender;
+    private final LastActivityFetcher mLastActivityFetcher;
+    private final RosterCommandQueue mRosterQueue;
     private final EnumMap<FeatureDiscovery.Feature, String> mFeatures;
+    private final DiscoCache mDiscoCache;
+    private final Optional<RosterStore> mRosterStore;
 
     private KonConnection mConn = null;
     private AvatarSendReceiver mAvatarSendReceiver = null;
     private HTTPFileSlotRequester mSlotRequester = null;
-    private FeatureDiscovery mFeatureDiscovery = null;
+    private volatile FeatureDiscovery mFeatureDiscovery = null;
+
+    // never held while connecting or logging in
+    private final Object mSendLock = new Object();
+    // guarded by mSendLock
+    private Phase mPhase = Phase.IDLE;
+    // stanzas send while connecting; guarded by mSendLock
+    private final Deque<Stanza> mOutbound = new ArrayDeque<>();
+    // IDs of messages handed to the current connection and not acknowledged
+    // yet, stream management sends them again; guarded by mSendLock
+    private final Set<String> mUnacked = new HashSet<>();
 
     private Client(Control control, Path appDir) {
         mControl = control;
         //mLimited = limited;
 
         mMessageSender = new KonMessageSender(this);
+        mLastActivityFetcher = new LastActivityFetcher(this);
+        mRosterQueue = new RosterCommandQueue(this);
+
+        Metrics.gauge("client.outbound.queued", () -> {
+            synchronized (mSendLock) {
+                return mOutbound.size();
+            }
+        });
+        Metrics.gauge("client.roster.pending", mRosterQueue::size);
 
         // enable Smack debugging (print raw XML packets)
         //SmackConfiguration.DEBUG = true;
 
         mFeatures = new EnumMap<>(FeatureDiscovery.Feature.class);
 
+        mDiscoCache = new DiscoCache(appDir.resolve(DISCO_CACHE_FILE));
+        mRosterStore = createRosterStore(appDir.resolve(ROSTER_STORE_DIR).toFile());
+
         // setting caps cache
         File cacheDir = appDir.resolve(CAPS_CACHE_DIR).toFile();
         if (cacheDir.mkdir())
@@ -109,18 +156,27 @@ public final class Client implements StanzaListener, Runnable {
                 new SimpleDirectoryPersistentCache(cacheDir));
     }
 
-    public static Client create(Control control, Path appDir) {
-        Client client = new Client(control, appDir);
-
-        Thread clientThread = new Thread(client, "Client Connector");
-        clientThread.setDaemon(true);
-        clientThread.start();
+    private static Optional<RosterStore> createRosterStore(File dir) {
+        if (!dir.isDirectory() && !dir.mkdir()) {
+            LOGGER.warning("can't create roster store directory: "+dir);
+            return Optional.empty();
+        }
+        RosterStore store = DirectoryRosterStore.open(dir);
+        if (store == null)
+            // new or invalid, start without version
+            store = DirectoryRosterStore.init(dir);
+        if (store == null)
+            LOGGER.warning("can't initialize roster store: "+dir);
+        return Optional.ofNullable(store);
+    }
 
-        return client;
+    public static Client create(Control control, Path appDir) {
+        return new Client(control, appDir);
     }
 
     public void connect(PersonalKey key) {
         this.disconnect();
+        mFeatureDiscovery = null;
 
         LOGGER.config("connecting...");
         this.newStatus(Control.Status.CONNECTING);
@@ -134,10 +190,16 @@ public final class Client implements StanzaListener, Runnable {
         boolean validateCertificate = config.getBoolean(Config.SERV_CERT_VALIDATION);
 
         // create connection
-        mConn = new KonConnection(server,
+        KonConnection conn = new KonConnection(server,
                         key.getServerLoginKey(),
                         key.getBridgeCertificate(),
                         validateCertificate);
+        synchronized (mSendLock) {
+            mConn = conn;
+            mPhase = Phase.CONNECTING;
+            // unacknowledged messages of the old connection are lost
+            mUnacked.clear();
+        }
 
         // connection listener
         mConn.addConnectionListener(new KonConnectionListener(this, mControl));
@@ -145,6 +207,9 @@ public final class Client implements StanzaListener, Runnable {
         Roster roster = Roster.getInstanceFor(mConn);
         // subscriptions handled by roster handler
         roster.setSubscriptionMode(Roster.SubscriptionMode.manual);
+        // roster versioning: server sends only changes since last session
+        if (mRosterStore.isPresent())
+            roster.setRosterStore(mRosterStore.get());
 
         mAvatarSendReceiver = new AvatarSendReceiver(mConn, mControl.getAvatarHandler());
 
@@ -169,7 +234,23 @@ public final class Client implements StanzaListener, Runnable {
         mConn.addAsyncStanzaListener(new PublicKeyListener(mControl), publicKeyFilter);
 
         StanzaFilter presenceFilter = new StanzaTypeFilter(Presence.class);
-        mConn.addAsyncStanzaListener(new PresenceListener(roster, rosterHandler), presenceFilter);
+        PresenceListener presenceListener = new PresenceListener(roster, rosterHandler);
+        mConn.addAsyncStanzaListener(presenceListener, presenceFilter);
+        mConn.addConnectionListener(new AbstractConnectionListener() {
+            @Override
+            public void authenticated(XMPPConnection connection, boolean resumed) {
+                if (!resumed)
+                    presenceListener.clear();
+            }
+            @Override
+            public void connectionClosed() {
+                presenceListener.clear();
+            }
+            @Override
+            public void connectionClosedOnError(Exception ex) {
+                presenceListener.clear();
+            }
+        });
 
         StanzaFilter lastActivityFilter = new StanzaTypeFilter(LastActivity.class);
         mConn.addAsyncStanzaListener(new LastActivityListener(mControl), lastActivityFilter);
@@ -181,41 +262,55 @@ public final class Client implements StanzaListener, Runnable {
         }
 
         // listen to all ACKs
-        mConn.addStanzaAcknowledgedListener(new AcknowledgedListener(mControl));
+        mConn.addStanzaAcknowledgedListener(new AcknowledgedListener(this, mControl));
 
         // listen to all IQ errors
         mConn.addAsyncStanzaListener(this, IQTypeFilter.ERROR);
 
         // continue async
-        Client.TASK_QUEUE.offer(new Client.Task(Client.Command.CONNECT, new ArrayList<>(0)));
+        mTaskQueue.execute(this::connectAsync);
     }
 
+    /**
+     * Connecting and login, always on the task queue. Stanzas send meanwhile
+     * are queued and flushed when logged in.
+     */
     private void connectAsync() {
-        // TODO unsure if everything is thread-safe
-        synchronized (this) {
-            // connect
-            try {
-                mConn.connect();
-            } catch (XMPPException | SmackException | IOException ex) {
-                LOGGER.log(Level.WARNING, "can't connect to "+mConn.getServer(), ex);
-                this.newStatus(Control.Status.FAILED);
-                mControl.onException(new KonException(KonException.Error.CLIENT_CONNECT, ex));
-                return;
-            }
+        // connect
+        try {
+            mConn.connect();
+        } catch (XMPPException | SmackException | IOException ex) {
+            LOGGER.log(Level.WARNING, "can't connect to "+mConn.getServer(), ex);
+            this.connectFailed();
+            this.newStatus(Control.Status.FAILED);
+            mControl.onException(new KonException(KonException.Error.CLIENT_CONNECT, ex));
+            return;
+        }
 
-            // login
-            try {
-                mConn.login();
-            } catch (XMPPException | SmackException | IOException ex) {
-                LOGGER.log(Level.WARNING, "can't login on "+mConn.getServer(), ex);
-                mConn.disconnect();
-                this.newStatus(Control.Status.FAILED);
-                mControl.onException(new KonException(KonException.Error.CLIENT_LOGIN, ex));
-                return;
-            }
+        // login
+        try {
+            mConn.login();
+        } catch (XMPPException | SmackException | IOException ex) {
+            LOGGER.log(Level.WARNING, "can't login on "+mConn.getServer(), ex);
+            mConn.disconnect();
+            this.connectFailed();
+            this.newStatus(Control.Status.FAILED);
+            mControl.onException(new KonException(KonException.Error.CLIENT_LOGIN, ex));
+            return;
+        }
+
+        if (mConn.streamWasResumed()) {
+            // session state is still valid, everything unacknowledged is
+            // resend by stream management
+            LOGGER.info("stream resumed");
+            this.flushOutbound();
+            mFeatures.putAll(mFeatureDiscovery.getServerFeatures());
+            mControl.onStatusChange(Control.Status.CONNECTED, this.getServerFeature(), true);
+            mRosterQueue.flush();
+            return;
         }
 
-        mFeatureDiscovery = new FeatureDiscovery(mConn);
+        mFeatureDiscovery = new FeatureDiscovery(mConn, mDiscoCache);
 
         mFeatures.clear();
         mFeatures.putAll(mFeatureDiscovery.getServerFeatures());
@@ -267,12 +362,47 @@ public final class Client implements StanzaListener, Runnable {
 //            Logger.getLogger(Client.class.getName()).log(Level.SEVERE, null, ex);
 //        }
 
+        this.flushOutbound();
+
         this.newStatus(Control.Status.CONNECTED);
 
         this.sendBlocklistRequest();
+
+        // roster changes made while offline
+        mRosterQueue.flush();
+    }
+
+    /**
+     * Try to resume the previous stream after the connection was lost.
+     * Falls back to a new session on the same connection if the server
+     * does not resume it.
+     * @return false if resumption is not possible and a new connection is
+     * needed
+     */
+    public boolean resume() {
+        if (!this.canResume())
+            return false;
+
+        LOGGER.config("resuming...");
+        synchronized (mSendLock) {
+            mPhase = Phase.CONNECTING;
+        }
+        this.newStatus(Control.Status.CONNECTING);
+        mTaskQueue.execute(this::connectAsync);
+        return true;
+    }
+
+    /** Return if the previous stream can be resumed after the connection was lost. */
+    public boolean canResume() {
+        return mConn != null && !mConn.isConnected() && mFeatureDiscovery != null &&
+                mConn.isSmResumptionPossible();
     }
 
     public void disconnect() {
+        synchronized (mSendLock) {
+            mPhase = Phase.IDLE;
+            this.dropOutbound();
+        }
         if (mConn != null && mConn.isConnected()) {
             this.newStatus(Control.Status.DISCONNECTING);
             mConn.disconnect();
@@ -366,41 +496,110 @@ public final class Client implements StanzaListener, Runnable {
         this.sendPacket(message);
     }
 
+    /** Request last activity of a contact; batched and not repeated too often. */
     public void sendLastActivityRequest(JID jid) {
-        Client.TASK_QUEUE.offer(new Client.Task(Client.Command.LAST_ACTIVITY,
-                                                       Collections.singletonList(jid)));
+        mLastActivityFetcher.request(jid);
     }
 
-    private void sendLastActivityRequestAsync(JID jid) {
-        if (mFeatureDiscovery == null) {
+    boolean isLastActivitySupported(String domain) {
+        FeatureDiscovery featureDiscovery = mFeatureDiscovery;
+        if (featureDiscovery == null) {
             LOGGER.warning("no feature discovery");
-            return;
+            return false;
         }
 
-        // blocking
-        if (!mFeatureDiscovery.getFeaturesFor(jid.domain())
-                .containsKey(FeatureDiscovery.Feature.LAST_ACTIVITY))
-            // not supported by server
-            return;
+        // blocking if not cached
+        return featureDiscovery.getFeaturesFor(domain)
+                .containsKey(FeatureDiscovery.Feature.LAST_ACTIVITY);
+    }
+
+    /**
+     * Send stanzas in order. Never blocks on connecting, while connecting
+     * the stanzas are queued.
+     */
+    boolean sendPackets(Stanza[] stanzas) {
+        synchronized (mSendLock) {
+            if (mConn == null) {
+                LOGGER.warning("not connected");
+                return false;
+            }
+
+            if (mPhase == Phase.CONNECTING) {
+                for (Stanza s : stanzas) {
+                    if (mOutbound.size() >= MAX_OUTBOUND) {
+                        LOGGER.warning("outbound queue full, dropping: "+mOutbound.poll());
+                    }
+                    mOutbound.add(s);
+                }
+                return true;
+            }
 
-        LastActivity request = new LastActivity(jid.string());
-        this.sendPacket(request);
+            boolean sent = true;
+            for (Stanza s: stanzas)
+                sent &= this.sendToStream(s);
+            return sent;
+        }
+    }
+
+    boolean sendPacket(Stanza p) {
+        return this.sendPackets(new Stanza[]{p});
+    }
+
+    /** Send queued stanzas after login, before anything else. */
+    private void flushOutbound() {
+        synchronized (mSendLock) {
+            if (mPhase != Phase.CONNECTING)
+                // disconnected meanwhile
+                return;
+
+            if (!mOutbound.isEmpty())
+                LOGGER.config("sending queued stanzas: "+mOutbound.size());
+            while (!mOutbound.isEmpty())
+                this.sendToStream(mOutbound.poll());
+            mPhase = Phase.CONNECTED;
+        }
     }
 
-    synchronized boolean sendPackets(Stanza[] stanzas) {
-        boolean sent = true;
-        for (Stanza s: stanzas)
-            sent &= this.sendPacket(s);
+    // guarded by mSendLock
+    private boolean sendToStream(Stanza s) {
+        boolean sent = mConn.send(s);
+        if (sent && s instanceof Message && s.getStanzaId() != null &&
+                mConn.isSmEnabled())
+            mUnacked.add(s.getStanzaId());
         return sent;
     }
 
-    synchronized boolean sendPacket(Stanza p) {
-        if (mConn == null) {
-            LOGGER.warning("not connected");
-            return false;
+    void onAcknowledged(Stanza s) {
+        synchronized (mSendLock) {
+            mUnacked.remove(s.getStanzaId());
+        }
+    }
+
+    /**
+     * Return if a message was handed to the current connection and is not
+     * acknowledged by the server yet. Stream management sends it again
+     * after resuming, even if a new session is started on the connection.
+     */
+    public boolean isUnacknowledged(String xmppID) {
+        synchronized (mSendLock) {
+            return mUnacked.contains(xmppID);
+        }
+    }
+
+    private void connectFailed() {
+        synchronized (mSendLock) {
+            mPhase = Phase.IDLE;
+            this.dropOutbound();
         }
+    }
 
-        return mConn.send(p);
+    // guarded by mSendLock
+    private void dropOutbound() {
+        if (mOutbound.isEmpty())
+            return;
+        // presences and requests are send again on next connect
+        LOGGER.info("dropping queued stanzas: "+mOutbound.size());
+        mOutbound.clear();
     }
 
     @Override
@@ -408,73 +607,23 @@ public final class Client implements StanzaListener, Runnable {
         LOGGER.warning("IQ error: "+packet);
     }
 
-    public boolean addToRoster(JID jid, String name) {
-        if (!this.isConnected()) {
-            LOGGER.info("not connected");
-            return false;
-        }
-
+    /** Add entry to roster and request presence subscription. Non-blocking. */
+    public void addToRoster(JID jid, String name) {
         if (!jid.isValid()) {
             LOGGER.warning("invalid JID: " + jid);
-            return false;
-        }
-
-        try {
-            // also sends presence subscription request
-            Roster.getInstanceFor(mConn).createEntry(jid.string(), name,
-                    null);
-        } catch (SmackException.NotLoggedInException |
-                SmackException.NoResponseException |
-                XMPPException.XMPPErrorException |
-                SmackException.NotConnectedException ex) {
-            LOGGER.log(Level.WARNING, "can't add contact to roster", ex);
-            return false;
+            return;
         }
-        return true;
+        mRosterQueue.add(RosterCommand.ADD, jid, name);
     }
 
-    public boolean removeFromRoster(JID jid) {
-        if (!this.isConnected()) {
-            LOGGER.info("not connected");
-            return false;
-        }
-        Roster roster = Roster.getInstanceFor(mConn);
-        RosterEntry entry = roster.getEntry(jid.string());
-        if (entry == null) {
-            LOGGER.info("can't find roster entry for jid: "+jid);
-            return true;
-        }
-        try {
-            // blocking
-            roster.removeEntry(entry);
-        } catch (SmackException.NotLoggedInException |
-                SmackException.NoResponseException |
-                XMPPException.XMPPErrorException |
-                SmackException.NotConnectedException ex) {
-            LOGGER.log(Level.WARNING, "can't remove contact from roster", ex);
-            return false;
-        }
-        return true;
+    /** Remove entry from roster. Non-blocking. */
+    public void removeFromRoster(JID jid) {
+        mRosterQueue.add(RosterCommand.REMOVE, jid, null);
     }
 
+    /** Change the name of a roster entry. Non-blocking. */
     public void updateRosterEntry(JID jid, String newName) {
-        if (!this.isConnected()) {
-            LOGGER.info("not connected");
-            return;
-        }
-        Roster roster = Roster.getInstanceFor(mConn);
-        RosterEntry entry = roster.getEntry(jid.string());
-        if (entry == null) {
-            LOGGER.warning("can't find roster entry for jid: "+jid);
-            return;
-        }
-        try {
-            entry.setName(newName);
-        } catch (SmackException.NotConnectedException |
-                SmackException.NoResponseException |
-                XMPPException.XMPPErrorException ex) {
-            LOGGER.log(Level.WARNING, "can't set name for entry", ex);
-        }
+        mRosterQueue.add(RosterCommand.UPDATE, jid, newName);
     }
 
     public void requestAvatar(JID jid, String id) {
@@ -524,6 +673,33 @@ public final class Client implements StanzaListener, Runnable {
 
     /* package internal*/
 
+    /** Send IQ, callbacks are called on response. Return false if not sent. */
+    boolean sendWithCallback(IQ iq, StanzaListener onResult, ExceptionCallback onError) {
+        KonConnection conn = mConn;
+        if (conn == null || !this.isConnected()) {
+            LOGGER.info("not connected");
+            return false;
+        }
+        return conn.sendWithCallback(iq, onResult, onError);
+    }
+
+    /** Group names of a roster entry, empty if there is no entry. */
+    Optional<List<String>> rosterGroups(JID jid) {
+        KonConnection conn = mConn;
+        if (conn == null)
+            return Optional.empty();
+        RosterEntry entry = Roster.getInstanceFor(conn).getEntry(jid.string());
+        if (entry == null)
+            return Optional.empty();
+        return Optional.of(entry.getGroups().stream()
+                .map(RosterGroup::getName)
+                .collect(Collectors.toList()));
+    }
+
+    void onRosterCommandResult(RosterCommand command, JID jid, boolean success) {
+        mControl.getRosterHandler().onRosterCommandResult(command, jid, success);
+    }
+
     void newStatus(Control.Status status) {
         if (status != Control.Status.CONNECTED)
             mFeatures.clear();
@@ -539,37 +715,4 @@ public final class Client implements StanzaListener, Runnable {
         return mFeatures.containsKey(FeatureDiscovery.Feature.MULTI_ADDRESSING)
                 && mConn != null ? mConn.getHost() : "";
     }
-
-    @Override
-    public void run() {
-        while (true) {
-            Task t;
-            try {
-                // blocking
-                t = TASK_QUEUE.take();
-            } catch (InterruptedException ex) {
-                LOGGER.log(Level.WARNING, "interrupted while waiting ", ex);
-                return;
-            }
-            switch (t.command) {
-                case CONNECT:
-                    this.connectAsync();
-                    break;
-                case LAST_ACTIVITY:
-                    this.sendLastActivityRequestAsync((JID) t.args.get(0));
-                    break;
-            }
-        }
-    }
-
-    private static class Task {
-
-        final Command command;
-        final List<?> args;
-
-        Task(Command c, List<?> a) {
-            command = c;
-            args = a;
-        }
-    }
 }
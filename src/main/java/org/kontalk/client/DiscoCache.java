@@ -0,0 +1,163 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.kontalk.misc.Metrics;
+import org.kontalk.system.Scheduler;
+
+/**
+ * Persistent cache for discovered entity features, stored as JSON file in
+ * the application directory.
+ *
+ * Entries are valid for a limited time. Expired entries are still returned
+ * but should be refreshed.
+ *
+ * Thread-safe.
+ */
+final class DiscoCache {
+    private static final Logger LOGGER = Logger.getLogger(DiscoCache.class.getName());
+
+    private static final Metrics.HitRate HIT_RATE = Metrics.hitRate("client.disco_cache");
+
+    private static final long TTL = TimeUnit.DAYS.toMillis(1);
+
+    private static final String JSON_TIME = "time";
+    private static final String JSON_FEATURES = "features";
+
+    static final class Entry {
+        final EnumMap<FeatureDiscovery.Feature, String> features;
+        final long time;
+
+        private Entry(EnumMap<FeatureDiscovery.Feature, String> features, long time) {
+            this.features = features;
+            this.time = time;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - time > TTL;
+        }
+    }
+
+    private final Path mFile;
+    // key -> entry; guarded by this
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private boolean mSaveScheduled = false;
+
+    DiscoCache(Path file) {
+        mFile = file;
+        this.load();
+    }
+
+    synchronized Optional<Entry> get(String key) {
+        Entry entry = mEntries.get(key);
+        HIT_RATE.record(entry != null);
+        return Optional.ofNullable(entry);
+    }
+
+    /** Add or replace an entry, the file is written in background. */
+    synchronized void put(String key, EnumMap<FeatureDiscovery.Feature, String> features) {
+        mEntries.put(key, new Entry(new EnumMap<>(features), System.currentTimeMillis()));
+
+        if (mSaveScheduled)
+            return;
+        mSaveScheduled = true;
+        if (Scheduler.getInstance().submit(Scheduler.Pool.DISK, this::save).isCancelled())
+            // dropped, saved with the next change
+            mSaveScheduled = false;
+    }
+
+    private void load() {
+        if (!Files.isReadable(mFile))
+            return;
+
+        String json;
+        try {
+            json = new String(Files.readAllBytes(mFile), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can't read cache file", ex);
+            return;
+        }
+
+        Object obj = JSONValue.parse(json);
+        try {
+            Map<?, ?> map = (Map) obj;
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                Map<?, ?> entry = (Map) e.getValue();
+                long time = ((Number) entry.get(JSON_TIME)).longValue();
+                Map<?, ?> featureMap = (Map) entry.get(JSON_FEATURES);
+                EnumMap<FeatureDiscovery.Feature, String> features =
+                        new EnumMap<>(FeatureDiscovery.Feature.class);
+                for (Map.Entry<?, ?> f : featureMap.entrySet()) {
+                    try {
+                        features.put(FeatureDiscovery.Feature.valueOf((String) f.getKey()),
+                                (String) f.getValue());
+                    } catch (IllegalArgumentException ex) {
+                        // feature not known anymore
+                    }
+                }
+                mEntries.put((String) e.getKey(), new Entry(features, time));
+            }
+        } catch (ClassCastException | NullPointerException ex) {
+            LOGGER.log(Level.WARNING, "can't parse cache file", ex);
+            mEntries.clear();
+        }
+        LOGGER.config("loaded entries: "+mEntries.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void save() {
+        JSONObject json = new JSONObject();
+        synchronized (this) {
+            mSaveScheduled = false;
+            for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+                JSONObject features = new JSONObject();
+                for (Map.Entry<FeatureDiscovery.Feature, String> f :
+                        e.getValue().features.entrySet())
+                    features.put(f.getKey().name(), f.getValue());
+                JSONObject entry = new JSONObject();
+                entry.put(JSON_TIME, e.getValue().time);
+                entry.put(JSON_FEATURES, features);
+                json.put(e.getKey(), entry);
+            }
+        }
+
+        try {
+            Path tmp = mFile.resolveSibling(mFile.getFileName() + ".tmp");
+            Files.write(tmp, json.toJSONString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, mFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can't write cache file", ex);
+        }
+    }
+}
@@ -34,12 +34,15 @@ import org.jivesoftware.smackx.disco.packet.DiscoverInfo;
 import org.jivesoftware.smackx.disco.packet.DiscoverItems;
 import org.jivesoftware.smackx.iqlast.packet.LastActivity;
 import org.jivesoftware.smackx.pubsub.packet.PubSub;
+import org.kontalk.system.Scheduler;
 
 /**
  *  Feature Service discovery (XEP-0030).
  *
  *  A cache is used for discovering each entity at most once. Assumption is that entity features
  *  do not change during a connection session.
+ *  Results are also stored in a persistent cache and used in the next sessions; if they are
+ *  expired they are refreshed in background.
  *
  *  NOTE: Caps (XEP-0115) and caps cache is unfortunately not supported with server entities.
  *  The "ver=..." identifier is send with presence stanzas and server obviously don't send them.
@@ -70,11 +73,16 @@ public final class FeatureDiscovery {
         FEATURE_MAP.put(LastActivity.NAMESPACE, Feature.LAST_ACTIVITY);
     }
 
+    private static final String ITEMS_SUFFIX = "#items";
+
     private final KonConnection mConn;
+    private final DiscoCache mDiscoCache;
+    // guarded by this
     private final Map<String, EnumMap<Feature, String>> mCache = new HashMap<>();
 
-    FeatureDiscovery(KonConnection conn) {
+    FeatureDiscovery(KonConnection conn, DiscoCache discoCache) {
         mConn = conn;
+        mDiscoCache = discoCache;
     }
 
     /** Discover all known features of connected server and its items.  */
@@ -88,12 +96,45 @@ public final class FeatureDiscovery {
     }
 
     private EnumMap<Feature, String> getFeatures(String entity, boolean withItems) {
-        if (!mCache.containsKey(entity))
-            mCache.put(entity, this.discover(entity, withItems));
+        String key = withItems ? entity + ITEMS_SUFFIX : entity;
+        synchronized (this) {
+            EnumMap<Feature, String> features = mCache.get(key);
+            if (features != null)
+                return features;
+        }
 
-        return mCache.get(entity);
+        DiscoCache.Entry entry = mDiscoCache.get(key).orElse(null);
+        if (entry != null) {
+            if (entry.isExpired()) {
+                Scheduler.getInstance().submit(Scheduler.Pool.NETWORK,
+                        () -> this.discoverAndCache(key, entity, withItems));
+            }
+            synchronized (this) {
+                mCache.put(key, entry.features);
+            }
+            return entry.features;
+        }
+
+        // blocking
+        return this.discoverAndCache(key, entity, withItems);
     }
 
+    private EnumMap<Feature, String> discoverAndCache(String key, String entity, boolean withItems) {
+        EnumMap<Feature, String> features = this.discover(entity, withItems);
+        if (features != null) {
+            mDiscoCache.put(key, features);
+        } else {
+            // failed, try again next session
+            features = new EnumMap<>(FeatureDiscovery.Feature.class);
+        }
+
+        synchronized (this) {
+            mCache.put(key, features);
+        }
+        return features;
+    }
+
+    /** Return null if discovery failed. */
     private EnumMap<Feature, String> discover(String entity, boolean withItems) {
         // NOTE: smack automatically creates instances of SDM and CapsM and connects them
         ServiceDiscoveryManager discoManager = ServiceDiscoveryManager.getInstanceFor(mConn);
@@ -101,7 +142,7 @@ public final class FeatureDiscovery {
         // 1. get features from server
         EnumMap<Feature, String> features = discover(discoManager, entity);
         if (features == null)
-            return new EnumMap<>(FeatureDiscovery.Feature.class);
+            return null;
 
         if (!withItems)
             return features;
@@ -33,6 +33,7 @@ import java.security.PrivateKey;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -55,6 +56,7 @@ import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.kontalk.misc.KonException;
+import org.kontalk.misc.Metrics;
 import org.kontalk.system.AttachmentManager;
 import org.kontalk.util.EncodingUtils;
 import org.kontalk.util.MediaUtils;
@@ -67,6 +69,12 @@ import org.kontalk.util.TrustUtils;
 public class HTTPFileClient {
     private static final Logger LOGGER = Logger.getLogger(HTTPFileClient.class.getName());
 
+    private static final Metrics.Counter DOWNLOAD_BYTES = Metrics.counter("http.download.bytes");
+    private static final Metrics.Counter UPLOAD_BYTES = Metrics.counter("http.upload.bytes");
+    // throughput of each transfer in KB/s, including request overhead
+    private static final Metrics.Histogram DOWNLOAD_RATE = Metrics.histogram("http.download.kbps");
+    private static final Metrics.Histogram UPLOAD_RATE = Metrics.histogram("http.upload.kbps");
+
     /** Regex used to parse content-disposition headers for download. */
     private static final Pattern CONTENT_DISPOSITION_PATTERN = Pattern
             .compile("attachment;\\s*filename\\s*=\\s*\"([^\"]*)\"");
@@ -118,6 +126,7 @@ public class HTTPFileClient {
         }
 
         LOGGER.config("from URL=" + url+ " ...");
+        long start = System.nanoTime();
         mCurrentRequest = new HttpGet(url);
         mCurrentListener = listener;
 
@@ -174,25 +183,27 @@ public class HTTPFileClient {
                     LOGGER.log(Level.WARNING, "can' parse file size", ex);
                 }
             }
+            // zero length: treat as unknown, actual size is known when finished
+            if (s <= 0)
+                s = -1;
             final long fileSize = s;
             mCurrentListener.updateProgress(s < 0 ? -2 : 0);
 
             File outFile = MediaUtils.nonExistingFileForPath(
                     Paths.get(base.toString(),
                             (encrypted ? AttachmentManager.ENCRYPT_PREFIX : "") + filename));
+            long bytes;
             try (FileOutputStream out = new FileOutputStream(outFile)){
                 CountingOutputStream cOut = new CountingOutputStream(out) {
                     @Override
                     protected synchronized void afterWrite(int n) {
-                        if (fileSize <= 0)
-                            return;
-
-                        // inform listener
-                        mCurrentListener.updateProgress(
-                                (int) (this.getByteCount() /(fileSize * 1.0) * 100));
+                        // inform listener, called for every buffer
+                        mCurrentListener.updateBytes(this.getByteCount(), fileSize);
                     }
                 };
                 entity.writeTo(cOut);
+                bytes = cOut.getByteCount();
+                mCurrentListener.finished(bytes);
             } catch (IOException ex) {
                 LOGGER.log(Level.WARNING, "can't download file", ex);
                 throw new KonException(KonException.Error.DOWNLOAD_WRITE);
@@ -201,6 +212,8 @@ public class HTTPFileClient {
             // release http connection resource
             EntityUtils.consumeQuietly(entity);
 
+            recordTransfer(DOWNLOAD_BYTES, DOWNLOAD_RATE, bytes, start);
+
             return outFile.toPath();
         } finally {
             HttpClientUtils.closeQuietly(response);
@@ -228,6 +241,7 @@ public class HTTPFileClient {
             req.addHeader(HEADER_MESSAGE_FLAGS, "encrypted");
 
         LOGGER.config("to URL=" + uploadURL+ " ...");
+        long start = System.nanoTime();
 
         // execute request
         CloseableHttpResponse response = null;
@@ -249,12 +263,22 @@ public class HTTPFileClient {
                 LOGGER.warning("unexpected response code: " + code);
                 throw new KonException(KonException.Error.UPLOAD_RESPONSE);
             }
+
+            recordTransfer(UPLOAD_BYTES, UPLOAD_RATE, file.length(), start);
         } finally {
             HttpClientUtils.closeQuietly(response);
             mCurrentRequest = null;
         }
     }
 
+    private static void recordTransfer(Metrics.Counter counter, Metrics.Histogram rate,
+            long bytes, long startNanos) {
+        counter.add(bytes);
+        long millis = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), 1);
+        // bytes per millisecond is about KB/s
+        rate.record(bytes / millis);
+    }
+
     private static CloseableHttpClient httpClientOrNull(PrivateKey privateKey,
             X509Certificate certificate,
             boolean validateCertificate) {
@@ -305,6 +329,17 @@ public class HTTPFileClient {
     }
 
     public interface ProgressListener {
+        /** Transfer state: 0 started, -2 unknown size, -3 aborted. */
         void updateProgress(int percent);
+
+        /**
+         * Bytes transferred so far. Called very often, throttling is up to
+         * the listener.
+         * @param total file size in bytes, -1 if unknown
+         */
+        void updateBytes(long transferred, long total);
+
+        /** Transfer completed, called once after the last updateBytes(). */
+        void finished(long transferred);
     }
 }
@@ -73,9 +73,10 @@ final class KonConnection extends XMPPTCPConnection {
         // blacklist PLAIN mechanism
         SASLAuthentication.blacklistSASLMechanism("PLAIN");
 
-        // enable SM without resumption (XEP-0198)
+        // enable SM with resumption (XEP-0198), lost connections are resumed
+        // by reconnecting with this object
         this.setUseStreamManagement(true);
-        this.setUseStreamManagementResumption(false);
+        this.setUseStreamManagementResumption(true);
     }
 
     private static XMPPTCPConnectionConfiguration buildConfiguration(
@@ -155,16 +156,22 @@ final class KonConnection extends XMPPTCPConnection {
     }
 
     void sendWithCallback(IQ packet, StanzaListener callback) {
+        this.sendWithCallback(packet, callback, new ExceptionCallback() {
+            @Override
+            public void processException(Exception ex) {
+                LOGGER.log(Level.WARNING, "exception response", ex);
+            }
+        });
+    }
+
+    boolean sendWithCallback(IQ packet, StanzaListener callback, ExceptionCallback exCallback) {
         LOGGER.config("packet: "+packet);
         try {
-            super.sendIqWithResponseCallback(packet, callback, new ExceptionCallback() {
-                @Override
-                public void processException(Exception ex) {
-                    LOGGER.log(Level.WARNING, "exception response", ex);
-                }
-            });
+            super.sendIqWithResponseCallback(packet, callback, exCallback);
         } catch (SmackException.NotConnectedException ex) {
             LOGGER.log(Level.WARNING, "not connected", ex);
+            return false;
         }
+        return true;
     }
 }
@@ -52,7 +52,7 @@ final class KonConnectionListener implements ConnectionListener {
     @Override
     public void authenticated(XMPPConnection connection, boolean resumed) {
         JID jid = JID.bare(connection.getUser());
-        LOGGER.info("as "+jid);
+        LOGGER.info("as "+jid+(resumed ? ", resumed" : ""));
         mControl.onAuthenticated(jid);
     }
 
@@ -145,6 +145,7 @@ final class KonMessageListener implements StanzaListener {
         if (csExt != null) {
             chatState = ((ChatStateExtension) csExt).getChatState();
             mControl.onChatStateNotification(ids,
+                    ClientUtils.parseGroupData(m),
                     Optional.ofNullable(delayDate),
                     chatState);
         }
@@ -0,0 +1,122 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smackx.iqlast.packet.LastActivity;
+import org.kontalk.misc.JID;
+import org.kontalk.system.Scheduler;
+
+/**
+ * Sends Last Activity requests (XEP-0012) in batches.
+ *
+ * Requests are collected for a short time and then send without waiting for
+ * responses, at most a fixed number per interval. A contact is not requested
+ * again if it was requested recently or is already waiting in the queue.
+ * Server support is checked once per domain and batch.
+ *
+ * Responses are handled by {@link LastActivityListener}.
+ */
+final class LastActivityFetcher {
+    private static final Logger LOGGER = Logger.getLogger(LastActivityFetcher.class.getName());
+
+    /** Time to wait for more requests before sending the first batch. */
+    private static final long BATCH_DELAY = 500; // milliseconds
+    /** Minimum time between two batches. */
+    private static final long BATCH_INTERVAL = 1000; // milliseconds
+    private static final int BATCH_SIZE = 20;
+    /** Contacts are not requested again within this time. */
+    private static final long FRESHNESS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Client mClient;
+
+    // guarded by this
+    private final Set<JID> mQueue = new LinkedHashSet<>();
+    // JID -> time of last request
+    private final Map<JID, Long> mRequested = new HashMap<>();
+    private boolean mScheduled = false;
+
+    LastActivityFetcher(Client client) {
+        mClient = client;
+    }
+
+    synchronized void request(JID jid) {
+        Long last = mRequested.get(jid);
+        if (last != null && System.currentTimeMillis() - last < FRESHNESS)
+            return;
+
+        if (!mQueue.add(jid) || mScheduled)
+            return;
+
+        mScheduled = true;
+        Scheduler.getInstance().schedule(Scheduler.Pool.NETWORK, this::sendBatch,
+                BATCH_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendBatch() {
+        List<JID> batch = new ArrayList<>(BATCH_SIZE);
+        synchronized (this) {
+            if (!mClient.isConnected()) {
+                // requested again after connecting
+                LOGGER.info("not connected, dropping requests: "+mQueue.size());
+                mQueue.clear();
+                mScheduled = false;
+                return;
+            }
+
+            Iterator<JID> it = mQueue.iterator();
+            while (it.hasNext() && batch.size() < BATCH_SIZE) {
+                batch.add(it.next());
+                it.remove();
+            }
+
+            long now = System.currentTimeMillis();
+            for (JID jid : batch)
+                mRequested.put(jid, now);
+
+            mScheduled = !mQueue.isEmpty();
+            if (mScheduled) {
+                Scheduler.getInstance().schedule(Scheduler.Pool.NETWORK, this::sendBatch,
+                        BATCH_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        // blocking only if domain features are not cached
+        Map<String, Boolean> supported = new HashMap<>();
+        for (JID jid : batch) {
+            Boolean domainSupported = supported.get(jid.domain());
+            if (domainSupported == null) {
+                domainSupported = mClient.isLastActivitySupported(jid.domain());
+                supported.put(jid.domain(), domainSupported);
+            }
+            if (domainSupported)
+                mClient.sendPacket(new LastActivity(jid.string()));
+        }
+        LOGGER.config("sent: "+batch.size());
+    }
+}
@@ -18,7 +18,12 @@
 
 package org.kontalk.client;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import org.apache.commons.lang.StringUtils;
 import org.jivesoftware.smack.StanzaListener;
@@ -31,6 +36,7 @@ import org.jivesoftware.smack.provider.ProviderManager;
 import org.jivesoftware.smackx.muc.packet.MUCUser;
 import org.kontalk.misc.JID;
 import org.kontalk.system.RosterHandler;
+import org.kontalk.system.Scheduler;
 
 /**
  * Listen for presence packets.
@@ -39,13 +45,34 @@ import org.kontalk.system.RosterHandler;
  * extension (custom Kontalk extension, based on XEP-0189) and/or a signature
  * extension for signing the status element (XEP-0027).
  *
+ * Presences are send again and again by the server, especially after login.
+ * A presence equal to the last one from the same full JID is dropped,
+ * the last presences are cleared when the connection closes or a new session
+ * starts.
+ * Others are collected per contact for a short time and then processed once
+ * in background, in order. A signature is only handled if it changed.
+ *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
 class PresenceListener implements StanzaListener {
     private static final Logger LOGGER = Logger.getLogger(PresenceListener.class.getName());
 
+    /** Time to collect presences before processing them. */
+    private static final long COALESCE_DELAY = 200; // milliseconds
+
     private final Roster mRoster;
     private final RosterHandler mHandler;
+    private final Executor mExecutor = Scheduler.getInstance().serial(Scheduler.Pool.NETWORK);
+
+    // guarded by this
+    // full JID string -> key of last presence
+    private final Map<String, String> mLastPresence = new HashMap<>();
+    // bare JID -> fingerprint of last presence, empty if none
+    private final Map<JID, String> mPending = new LinkedHashMap<>();
+    private boolean mScheduled = false;
+
+    // bare JID -> last verified signature; only used by executor
+    private final Map<JID, String> mLastSignature = new HashMap<>();
 
     public PresenceListener(Roster roster, RosterHandler handler) {
         mRoster = roster;
@@ -62,6 +89,11 @@ class PresenceListener implements StanzaListener {
                 new PresenceSignature.Provider());
     }
 
+    /** Forget the last presences; the server sends them again on login. */
+    synchronized void clear() {
+        mLastPresence.clear();
+    }
+
     @Override
     public void processPacket(Stanza packet) {
         if (MUCUser.from(packet) != null) {
@@ -70,8 +102,6 @@ class PresenceListener implements StanzaListener {
             return;
         }
 
-        LOGGER.config("packet: "+packet);
-
         Presence presence = (Presence) packet;
 
         JID jid = JID.full(presence.getFrom());
@@ -85,6 +115,7 @@ class PresenceListener implements StanzaListener {
 
         switch(presence.getType()) {
             case error:
+                LOGGER.config("packet: "+packet);
                 XMPPError error = presence.getError();
                 if (error == null) {
                     LOGGER.warning("error presence does not contain error");
@@ -95,6 +126,7 @@ class PresenceListener implements StanzaListener {
                 return;
             // NOTE: only handled here if Roster.SubscriptionMode is set to 'manual'
             case subscribe:
+                LOGGER.config("packet: "+packet);
                 byte[] key = pubKey != null ? pubKey.getKey() : null;
                 if (key == null)
                     key = new byte[0];
@@ -109,6 +141,60 @@ class PresenceListener implements StanzaListener {
         // NOTE: a delay extension is sometimes included, don't know why;
         // ignoring mode, always null anyway
 
+        String fp = pubKey != null ?
+                StringUtils.defaultString(pubKey.getFingerprint()).toLowerCase() :
+                "";
+        if (pubKey != null && fp.isEmpty())
+            LOGGER.warning("no fingerprint in public key presence extension");
+
+        String presenceKey = presenceKey(presence, fp);
+        synchronized (this) {
+            String fullJID = jid.string().toLowerCase();
+            if (presenceKey.equals(mLastPresence.get(fullJID))) {
+                LOGGER.finer("ignoring unchanged presence, from: "+jid);
+                return;
+            }
+            if (presence.getType() == Presence.Type.unavailable) {
+                mLastPresence.remove(fullJID);
+            } else {
+                mLastPresence.put(fullJID, presenceKey);
+            }
+
+            LOGGER.config("packet: "+packet);
+
+            // keep last fingerprint if newer presence has none
+            String pendingFP = mPending.get(jid.toBare());
+            mPending.put(jid.toBare(), fp.isEmpty() && pendingFP != null ? pendingFP : fp);
+
+            if (mScheduled)
+                return;
+            mScheduled = true;
+        }
+
+        Scheduler.getInstance().schedule(Scheduler.Pool.NETWORK,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mExecutor.execute(PresenceListener.this::processPending);
+                    }
+                },
+                COALESCE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void processPending() {
+        Map<JID, String> pending;
+        synchronized (this) {
+            pending = new LinkedHashMap<>(mPending);
+            mPending.clear();
+            mScheduled = false;
+        }
+
+        LOGGER.config("processing presences: "+pending.size());
+        for (Map.Entry<JID, String> e : pending.entrySet())
+            this.process(e.getKey(), e.getValue());
+    }
+
+    private void process(JID jid, String fingerprint) {
         // NOTE: using only the "best" presence to ignore unimportant updates
         // from multiple clients
         Presence bestPresence = mRoster.getPresence(jid.string());
@@ -117,14 +203,8 @@ class PresenceListener implements StanzaListener {
                 bestPresence.getType(),
                 Optional.ofNullable(bestPresence.getStatus()));
 
-        if (pubKey != null) {
-            String fp = StringUtils.defaultString(pubKey.getFingerprint()).toLowerCase();
-            if (fp.isEmpty()) {
-                LOGGER.warning("no fingerprint in public key presence extension");
-            } else {
-                mHandler.onFingerprintPresence(jid, fp);
-            }
-        }
+        if (!fingerprint.isEmpty())
+            mHandler.onFingerprintPresence(jid, fingerprint);
 
         ExtensionElement signatureExt = bestPresence.getExtension(
                 PresenceSignature.ELEMENT_NAME,
@@ -132,11 +212,29 @@ class PresenceListener implements StanzaListener {
         if (signatureExt instanceof PresenceSignature) {
             PresenceSignature signing = (PresenceSignature) signatureExt;
             String signature = StringUtils.defaultString(signing.getSignature());
-            if (!signature.isEmpty()) {
-                mHandler.onSignaturePresence(jid, signature);
-            } else {
+            if (signature.isEmpty()) {
                 LOGGER.warning("no signature in signed presence extension");
+            } else if (!signature.equals(mLastSignature.get(jid))) {
+                // remember only verified signatures, else check again next time
+                if (mHandler.onSignaturePresence(jid, signature))
+                    mLastSignature.put(jid, signature);
+                else
+                    mLastSignature.remove(jid);
             }
         }
     }
+
+    /** Everything of a presence that is processed. */
+    private static String presenceKey(Presence presence, String fingerprint) {
+        ExtensionElement signatureExt = presence.getExtension(
+                PresenceSignature.ELEMENT_NAME,
+                PresenceSignature.NAMESPACE);
+        String signature = signatureExt instanceof PresenceSignature ?
+                StringUtils.defaultString(((PresenceSignature) signatureExt).getSignature()) :
+                "";
+        return presence.getType() + "|" + presence.getMode() + "|" +
+                presence.getPriority() + "|" +
+                StringUtils.defaultString(presence.getStatus()) + "|" +
+                fingerprint + "|" + signature;
+    }
 }
@@ -0,0 +1,234 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.ExceptionCallback;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.XMPPError;
+import org.jivesoftware.smack.roster.packet.RosterPacket;
+import org.kontalk.misc.JID;
+import org.kontalk.system.Scheduler;
+
+/**
+ * Queue for roster changes, sent without blocking.
+ *
+ * Changes are send as roster IQs, the result is handled in callbacks. There
+ * is at most one change per JID waiting for a response; further changes for
+ * this JID are merged while waiting. Commands are kept until connected and
+ * retried a few times if the server did not respond. The result of each
+ * command is reported to the roster handler.
+ */
+final class RosterCommandQueue {
+    private static final Logger LOGGER = Logger.getLogger(RosterCommandQueue.class.getName());
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int RETRY_DELAY = 2; // seconds, doubled after each attempt
+
+    private static final class Command {
+        final Client.RosterCommand type;
+        final JID jid;
+        final String name;
+        final int attempt;
+
+        Command(Client.RosterCommand type, JID jid, String name, int attempt) {
+            this.type = type;
+            this.jid = jid;
+            this.name = name;
+            this.attempt = attempt;
+        }
+
+        /** Merge with a newer command for the same JID. */
+        Command merge(Command newer) {
+            if (newer.type != Client.RosterCommand.UPDATE)
+                return newer;
+
+            switch (type) {
+                case ADD:
+                    return new Command(type, jid, newer.name, attempt);
+                case REMOVE:
+                    // nothing to update
+                    return this;
+                default:
+                    return newer;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "{type="+type+",jid="+jid+",attempt="+attempt+"}";
+        }
+    }
+
+    private final Client mClient;
+
+    // guarded by this
+    private final Map<JID, Command> mPending = new LinkedHashMap<>();
+    private final Set<JID> mInFlight = new HashSet<>();
+
+    RosterCommandQueue(Client client) {
+        mClient = client;
+    }
+
+    void add(Client.RosterCommand type, JID jid, String name) {
+        this.queue(new Command(type, jid, name, 1));
+        this.flush();
+    }
+
+    /** Number of commands waiting or sent and not acknowledged. */
+    synchronized int size() {
+        return mPending.size() + mInFlight.size();
+    }
+
+    /** Send all pending commands, if connected. */
+    void flush() {
+        if (!mClient.isConnected())
+            return;
+
+        List<Command> next = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Command> it = mPending.values().iterator();
+            while (it.hasNext()) {
+                Command command = it.next();
+                if (mInFlight.add(command.jid)) {
+                    it.remove();
+                    next.add(command);
+                }
+            }
+        }
+
+        for (Command command : next)
+            this.send(command);
+    }
+
+    private synchronized void queue(Command command) {
+        Command pending = mPending.get(command.jid);
+        mPending.put(command.jid, pending == null ? command : pending.merge(command));
+    }
+
+    private void send(Command command) {
+        LOGGER.config("command: "+command);
+
+        Optional<List<String>> groups = mClient.rosterGroups(command.jid);
+        if (command.type != Client.RosterCommand.ADD && !groups.isPresent()) {
+            // would add the entry or fail with "item-not-found"
+            LOGGER.info("no roster entry, skipping: "+command);
+            this.finished(command);
+            mClient.onRosterCommandResult(command.type, command.jid,
+                    command.type == Client.RosterCommand.REMOVE);
+            this.flush();
+            return;
+        }
+
+        RosterPacket.Item item = new RosterPacket.Item(command.jid.string(), command.name);
+        if (command.type == Client.RosterCommand.REMOVE) {
+            item.setItemType(RosterPacket.ItemType.remove);
+        } else {
+            // keep groups of existing entry
+            for (String group : groups.orElse(Collections.emptyList()))
+                item.addGroupName(group);
+        }
+        RosterPacket packet = new RosterPacket();
+        packet.setType(IQ.Type.set);
+        packet.addRosterItem(item);
+
+        boolean sent = mClient.sendWithCallback(packet,
+                new StanzaListener() {
+                    @Override
+                    public void processPacket(Stanza response) {
+                        RosterCommandQueue.this.onSuccess(command);
+                    }
+                },
+                new ExceptionCallback() {
+                    @Override
+                    public void processException(Exception ex) {
+                        RosterCommandQueue.this.onFailure(command, ex);
+                    }
+                });
+
+        if (!sent)
+            // try again after connecting
+            this.requeue(command);
+    }
+
+    private void onSuccess(Command command) {
+        if (command.type == Client.RosterCommand.ADD)
+            // like Smack does
+            mClient.sendPresenceSubscription(command.jid, Client.PresenceCommand.REQUEST);
+
+        this.finished(command);
+        mClient.onRosterCommandResult(command.type, command.jid, true);
+        this.flush();
+    }
+
+    private void onFailure(Command command, Exception ex) {
+        LOGGER.warning("command failed: "+command+", "+ex);
+
+        boolean retry = command.attempt < MAX_ATTEMPTS &&
+                (ex instanceof SmackException.NoResponseException ||
+                (ex instanceof XMPPException.XMPPErrorException &&
+                ((XMPPException.XMPPErrorException) ex).getXMPPError().getType() ==
+                        XMPPError.Type.WAIT));
+        if (!retry) {
+            this.finished(command);
+            mClient.onRosterCommandResult(command.type, command.jid, false);
+            this.flush();
+            return;
+        }
+
+        // JID stays blocked until retry, newer commands must not overtake
+        long delay = (long) RETRY_DELAY << (command.attempt - 1);
+        Scheduler.getInstance().schedule(Scheduler.Pool.NETWORK,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        RosterCommandQueue.this.requeue(new Command(command.type,
+                                command.jid, command.name, command.attempt + 1));
+                        RosterCommandQueue.this.flush();
+                    }
+                },
+                delay, TimeUnit.SECONDS);
+    }
+
+    /** Put back an unfinished command, before newer commands for its JID. */
+    private synchronized void requeue(Command command) {
+        mInFlight.remove(command.jid);
+        Command newer = mPending.get(command.jid);
+        mPending.put(command.jid, newer == null ? command : command.merge(newer));
+    }
+
+    private synchronized void finished(Command command) {
+        mInFlight.remove(command.jid);
+    }
+}
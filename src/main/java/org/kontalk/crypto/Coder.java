@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.Optional;
 import java.util.logging.Logger;
 import org.kontalk.crypto.PGPUtils.PGPCoderKey;
+import org.kontalk.misc.Metrics;
 import org.kontalk.model.Contact;
 import org.kontalk.model.message.OutMessage;
 import org.kontalk.model.message.DecryptMessage;
@@ -37,6 +38,14 @@ import org.kontalk.model.message.InMessage;
 public final class Coder {
     private static final Logger LOGGER = Logger.getLogger(Coder.class.getName());
 
+    private static final Metrics.Histogram ENCRYPT_TIME = Metrics.histogram("crypto.encrypt");
+    private static final Metrics.Histogram DECRYPT_TIME = Metrics.histogram("crypto.decrypt");
+    private static final Metrics.Histogram ENCRYPT_ATT_TIME =
+            Metrics.histogram("crypto.encrypt_attachment");
+    private static final Metrics.Histogram DECRYPT_ATT_TIME =
+            Metrics.histogram("crypto.decrypt_attachment");
+    private static final Metrics.HitRate KEY_CACHE = Metrics.hitRate("crypto.key_cache");
+
     private Coder() {
     }
 
@@ -89,9 +98,12 @@ public final class Coder {
     public static Optional<PGPCoderKey> contactkey(Contact contact) {
         if (KEY_MAP.containsKey(contact)) {
             PGPCoderKey key = KEY_MAP.get(contact);
-            if (key.fingerprint.equals(contact.getFingerprint()))
+            if (key.fingerprint.equals(contact.getFingerprint())) {
+                KEY_CACHE.hit();
                 return Optional.of(key);
+            }
         }
+        KEY_CACHE.miss();
 
         byte[] rawKey = contact.getKey();
         if (rawKey.length != 0) {
@@ -111,7 +123,10 @@ public final class Coder {
      * status of the message and errors that may occur are saved to the message.
      */
     public static boolean decryptMessage(PersonalKey myKey, DecryptMessage message) {
-        return new Decryptor(myKey, message).decryptMessage();
+        long start = System.nanoTime();
+        boolean success = new Decryptor(myKey, message).decryptMessage();
+        DECRYPT_TIME.recordSince(start);
+        return success;
     }
 
     /**
@@ -120,7 +135,9 @@ public final class Coder {
      * saved to the message.
      */
     public static void decryptAttachment(PersonalKey myKey, InMessage message, Path baseDir) {
+        long start = System.nanoTime();
         new Decryptor(myKey, message).decryptAttachment(baseDir);
+        DECRYPT_ATT_TIME.recordSince(start);
     }
 
     /**
@@ -129,14 +146,23 @@ public final class Coder {
      * @return the encrypted and signed text.
      */
     public static Optional<byte[]> encryptMessage(PersonalKey myKey, OutMessage message) {
-        return new Encryptor(myKey, message).encryptMessage();
+        long start = System.nanoTime();
+        Optional<byte[]> encrypted = new Encryptor(myKey, message).encryptMessage();
+        ENCRYPT_TIME.recordSince(start);
+        return encrypted;
     }
 
     public static Optional<byte[]> encryptStanza(PersonalKey myKey, OutMessage message, String xml) {
-        return new Encryptor(myKey, message).encryptStanza(xml);
+        long start = System.nanoTime();
+        Optional<byte[]> encrypted = new Encryptor(myKey, message).encryptStanza(xml);
+        ENCRYPT_TIME.recordSince(start);
+        return encrypted;
     }
 
     public static Optional<File> encryptAttachment(PersonalKey myKey, OutMessage message, File file) {
-        return new Encryptor(myKey, message).encryptAttachment(file);
+        long start = System.nanoTime();
+        Optional<File> encrypted = new Encryptor(myKey, message).encryptAttachment(file);
+        ENCRYPT_ATT_TIME.recordSince(start);
+        return encrypted;
     }
 }
@@ -72,7 +72,8 @@ import org.xmlpull.v1.XmlPullParserException;
 final class Decryptor {
     private static final Logger LOGGER = Logger.getLogger(Decryptor.class.getName());
 
-    private static class DecryptionResult {
+    // visible for benchmarks
+    static class DecryptionResult {
         final EnumSet<Coder.Error> errors = EnumSet.noneOf(Coder.Error.class);
         Coder.Signing signing = Coder.Signing.UNKNOWN;
     }
@@ -208,7 +209,8 @@ final class Decryptor {
     }
 
     /** Decrypt, verify and write input stream data to output stream. */
-    private static DecryptionResult decryptAndVerify(
+    // visible for benchmarks
+    static DecryptionResult decryptAndVerify(
             InputStream encryptedInput, OutputStream plainOutput,
             PGPPrivateKey myKey, Optional<PGPPublicKey> senderSigningKey)
             throws PGPException, IOException {
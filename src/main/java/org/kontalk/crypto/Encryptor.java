@@ -164,7 +164,8 @@ final class Encryptor {
      * Encrypt, sign and write input stream data to output stream.
      * Input and output stream are closed.
      */
-    private static void encryptAndSign(
+    // visible for benchmarks and tests
+    static void encryptAndSign(
             InputStream plainInput, OutputStream encryptedOutput,
             PersonalKey myKey, List<PGPUtils.PGPCoderKey> receiverKeys)
             throws IOException, PGPException {
@@ -0,0 +1,223 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.misc;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Global registry for runtime metrics: counters, gauges, histograms and
+ * cache hit rates.
+ *
+ * Metrics are created on first access by name and live until the
+ * application exits. Names are dot-separated, starting with the component,
+ * e.g. "db.insert". Recording is lock-free and cheap enough for hot paths.
+ */
+public final class Metrics {
+    private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+
+    private static final Map<String, Object> METRICS = new ConcurrentHashMap<>();
+
+    /** Monotonically increasing count of events. */
+    public static final class Counter {
+        private final LongAdder mCount = new LongAdder();
+
+        private Counter() {}
+
+        public void inc() {
+            mCount.increment();
+        }
+
+        public void add(long n) {
+            mCount.add(n);
+        }
+
+        public long get() {
+            return mCount.sum();
+        }
+    }
+
+    /**
+     * Distribution of recorded values in power-of-two buckets. Percentiles
+     * are approximated by the upper bound of their bucket.
+     * Latencies are recorded in microseconds.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 48;
+
+        // bucket i contains values in [2^(i-1), 2^i)
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder mCount = new LongAdder();
+        private final LongAdder mSum = new LongAdder();
+        private final AtomicLong mMax = new AtomicLong();
+
+        private Histogram() {}
+
+        public void record(long value) {
+            value = Math.max(value, 0);
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+            mBuckets.incrementAndGet(bucket);
+            mCount.increment();
+            mSum.add(value);
+            mMax.accumulateAndGet(value, Math::max);
+        }
+
+        /** Record the time in microseconds since a {@link System#nanoTime()} value. */
+        public void recordSince(long startNanos) {
+            this.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        }
+
+        public long count() {
+            return mCount.sum();
+        }
+
+        public long mean() {
+            long count = mCount.sum();
+            return count == 0 ? 0 : mSum.sum() / count;
+        }
+
+        public long max() {
+            return mMax.get();
+        }
+
+        /** Approximate percentile, p between 0 and 1. */
+        public long percentile(double p) {
+            long count = mCount.sum();
+            if (count == 0)
+                return 0;
+            long rank = (long) Math.ceil(count * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= Math.max(rank, 1))
+                    // last bucket has no upper bound
+                    return i == BUCKETS - 1 ?
+                            mMax.get() :
+                            Math.min(i == 0 ? 0 : (1L << i) - 1, mMax.get());
+            }
+            return mMax.get();
+        }
+    }
+
+    /** Hits and misses of a cache lookup. */
+    public static final class HitRate {
+        private final LongAdder mHits = new LongAdder();
+        private final LongAdder mMisses = new LongAdder();
+
+        private HitRate() {}
+
+        public void hit() {
+            mHits.increment();
+        }
+
+        public void miss() {
+            mMisses.increment();
+        }
+
+        public void record(boolean hit) {
+            if (hit)
+                this.hit();
+            else
+                this.miss();
+        }
+
+        /** Ratio of hits to all lookups, between 0 and 1. */
+        public double rate() {
+            long hits = mHits.sum();
+            long all = hits + mMisses.sum();
+            return all == 0 ? 0 : hits / (double) all;
+        }
+    }
+
+    private Metrics() {}
+
+    public static Counter counter(String name) {
+        return get(name, Counter.class, Counter::new);
+    }
+
+    public static Histogram histogram(String name) {
+        return get(name, Histogram.class, Histogram::new);
+    }
+
+    public static HitRate hitRate(String name) {
+        return get(name, HitRate.class, HitRate::new);
+    }
+
+    /**
+     * Register a gauge: a value computed when metrics are read. Replaces
+     * a gauge with the same name. The supplier must be thread-safe.
+     */
+    public static void gauge(String name, Supplier<? extends Number> gauge) {
+        METRICS.put(name, gauge);
+    }
+
+    /**
+     * Current values of all metrics, sorted by name. Histograms and hit rates
+     * are split into several values, e.g. "db.insert.p99".
+     */
+    public static SortedMap<String, Number> snapshot() {
+        SortedMap<String, Number> values = new TreeMap<>();
+        for (Map.Entry<String, Object> e : METRICS.entrySet()) {
+            String name = e.getKey();
+            Object metric = e.getValue();
+            if (metric instanceof Counter) {
+                values.put(name, ((Counter) metric).get());
+            } else if (metric instanceof Histogram) {
+                Histogram h = (Histogram) metric;
+                values.put(name+".count", h.count());
+                values.put(name+".mean", h.mean());
+                values.put(name+".p50", h.percentile(0.5));
+                values.put(name+".p99", h.percentile(0.99));
+                values.put(name+".max", h.max());
+            } else if (metric instanceof HitRate) {
+                HitRate r = (HitRate) metric;
+                values.put(name+".hits", r.mHits.sum());
+                values.put(name+".misses", r.mMisses.sum());
+                values.put(name+".rate", r.rate());
+            } else if (metric instanceof Supplier) {
+                Object value;
+                try {
+                    value = ((Supplier<?>) metric).get();
+                } catch (RuntimeException ex) {
+                    LOGGER.warning("gauge failed: "+name+" "+ex);
+                    continue;
+                }
+                if (value instanceof Number)
+                    values.put(name, (Number) value);
+            }
+        }
+        return values;
+    }
+
+    private static <T> T get(String name, Class<T> type, Supplier<T> creator) {
+        Object metric = METRICS.computeIfAbsent(name, k -> creator.get());
+        if (!type.isInstance(metric))
+            throw new IllegalArgumentException("metric exists with other type: "+name);
+        return type.cast(metric);
+    }
+}
@@ -126,6 +126,30 @@ public class ViewEvent {
         }
     }
 
+    /** Throttled progress of an attachment transfer. */
+    public static class TransferProgress extends ViewEvent {
+        public final KonMessage message;
+        public final long transferred;
+        /** File size in bytes, -1 if unknown. */
+        public final long total;
+        public final long bytesPerSecond;
+        /** Estimated remaining time in seconds, -1 if unknown. */
+        public final long etaSeconds;
+
+        public TransferProgress(KonMessage message, long transferred, long total,
+                long bytesPerSecond, long etaSeconds) {
+            this.message = message;
+            this.transferred = transferred;
+            this.total = total;
+            this.bytesPerSecond = bytesPerSecond;
+            this.etaSeconds = etaSeconds;
+        }
+
+        public boolean isFinished() {
+            return total >= 0 && transferred >= total;
+        }
+    }
+
     /** Notify view about connection retry in X seconds. */
     public static class RetryTimerMessage extends ViewEvent {
         public final int countdown;
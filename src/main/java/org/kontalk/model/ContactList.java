@@ -46,6 +46,8 @@ public final class ContactList extends Observable {
 
     private final Map<JID, Contact> mJIDMap =
             Collections.synchronizedMap(new HashMap<JID, Contact>());
+    // number of running batches; guarded by this
+    private int mBatchDepth = 0;
 
     ContactList() {}
 
@@ -135,6 +137,27 @@ public final class ContactList extends Observable {
         this.changed(ViewChange.MODIFIED);
     }
 
+    /**
+     * Apply many changes at once: all are written in one database
+     * transaction, and observers of this list are notified only once at the
+     * end. If the changes throw, the transaction is rolled back.
+     * The database is locked while the changes run, send requests after.
+     */
+    public void batch(Runnable changes) {
+        Database db = Model.database();
+        synchronized (this) {
+            mBatchDepth++;
+        }
+        try {
+            db.batch(changes);
+        } finally {
+            synchronized (this) {
+                mBatchDepth--;
+            }
+            this.changed(ViewChange.MODIFIED);
+        }
+    }
+
     void onShutDown() {
         mJIDMap.values().forEach(Contact::onShutDown);
     }    
@@ -173,6 +196,11 @@ public final class ContactList extends Observable {
     }
 
     private void changed(ViewChange change) {
+        synchronized (this) {
+            if (mBatchDepth > 0 && change != null)
+                // notified at end of batch
+                return;
+        }
         this.setChanged();
         this.notifyObservers(change);
     }
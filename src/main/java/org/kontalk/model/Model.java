@@ -83,9 +83,14 @@ public final class Model {
     }
 
     public void load() {
+        this.load(0);
+    }
+
+    /** Load model, with at most 'messageLimit' finished messages per chat. */
+    public void load(int messageLimit) {
         // order matters!
         Map<Integer, Contact> contactMap = mContactList.load();
-        mChatList.load(contactMap);
+        mChatList.load(contactMap, messageLimit);
     }
 
     public void setUserJID(JID jid) {
@@ -99,16 +104,16 @@ public final class Model {
 
     public Optional<InMessage> createInMessage(ProtoMessage protoMessage,
             Chat chat, ClientUtils.MessageIDs ids, Optional<Date> serverDate) {
+        if (!ids.xmppID.isEmpty() && chat.getMessages().containsIncoming(ids.xmppID)) {
+            LOGGER.info("message already in chat, dropping this one");
+            return Optional.empty();
+        }
+
         InMessage newMessage = new InMessage(protoMessage, chat, ids.jid,
         ids.xmppID, serverDate);
 
         if (newMessage.getID() <= 0)
             return Optional.empty();
-
-        if (chat.getMessages().contains(newMessage)) {
-            LOGGER.info("message already in chat, dropping this one");
-            return Optional.empty();
-        }
         boolean added = chat.addMessage(newMessage);
         if (!added) {
             LOGGER.warning("can't add message to chat");
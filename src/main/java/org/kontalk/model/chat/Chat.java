@@ -85,7 +85,7 @@ public abstract class Chat extends Observable implements Observer, Searchable {
     private ViewSettings mViewSettings;
 
     Chat(String xmppID, String subject, GroupMetaData gData) {
-        mMessages = new ChatMessages();
+        mMessages = new ChatMessages(this);
         mRead = true;
         mViewSettings = ViewSettings.createDefault();
 
@@ -105,13 +105,13 @@ public abstract class Chat extends Observable implements Observer, Searchable {
     // used when loading from database
     Chat(int id, boolean read, String jsonViewSettings) {
         mID = id;
-        mMessages = new ChatMessages();
+        mMessages = new ChatMessages(this);
         mRead = read;
         mViewSettings = new ViewSettings(jsonViewSettings);
     }
 
-    private void loadMessages(Database db, Map<Integer, Contact> contactMap) {
-        mMessages.load(db, this, contactMap);
+    private void loadMessages(Database db, Map<Integer, Contact> contactMap, int messageLimit) {
+        mMessages.load(db, contactMap, messageLimit);
     }
 
     public ChatMessages getMessages() {
@@ -259,8 +259,8 @@ public abstract class Chat extends Observable implements Observer, Searchable {
             return this.getSubject().toLowerCase().contains(search);
     }
 
-    static Optional<Chat> load(Database db, ResultSet rs, Map<Integer, Contact> contactMap)
-            throws SQLException {
+    static Optional<Chat> load(Database db, ResultSet rs, Map<Integer, Contact> contactMap,
+            int messageLimit) throws SQLException {
         int id = rs.getInt("_id");
 
         String jsonGD = Database.getString(rs, Chat.COL_GD);
@@ -291,7 +291,7 @@ public abstract class Chat extends Observable implements Observer, Searchable {
             chat = new SingleChat(id, members.get(0), xmppID, read, jsonViewSettings);
         }
 
-        chat.loadMessages(db, contactMap);
+        chat.loadMessages(db, contactMap, messageLimit);
         return Optional.of(chat);
     }
 
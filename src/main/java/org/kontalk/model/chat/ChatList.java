@@ -50,13 +50,17 @@ public final class ChatList extends Observable implements Observer, Iterable<Cha
 
     private boolean mUnread = false;
 
-    public void load(Map<Integer, Contact> contactMap) {
+    /**
+     * Load all chats. If 'messageLimit' is positive, at most this number of
+     * finished messages are loaded for each chat.
+     */
+    public void load(Map<Integer, Contact> contactMap, int messageLimit) {
         assert mChats.isEmpty();
 
         Database db = Model.database();
         try (ResultSet chatRS = db.execSelectAll(Chat.TABLE)) {
             while (chatRS.next()) {
-                Chat chat = Chat.load(db, chatRS, contactMap).orElse(null);
+                Chat chat = Chat.load(db, chatRS, contactMap, messageLimit).orElse(null);
                 if (chat == null)
                     continue;
                 this.putSilent(chat);
@@ -101,11 +105,14 @@ public final class ChatList extends Observable implements Observer, Iterable<Cha
 
     /** Find single chat for contact and XMPP ID or creates a new chat. */
     public SingleChat getOrCreate(Contact contact, String xmppThreadID) {
-        SingleChat chat = this.get(contact, xmppThreadID).orElse(null);
-        if (chat != null)
-            return chat;
+        // incoming messages are handled concurrently in headless mode
+        synchronized(mChats) {
+            SingleChat chat = this.get(contact, xmppThreadID).orElse(null);
+            if (chat != null)
+                return chat;
 
-        return this.createNew(contact, xmppThreadID);
+            return this.createNew(contact, xmppThreadID);
+        }
     }
 
     private SingleChat createNew(Contact contact, String xmppThreadID) {
@@ -20,9 +20,13 @@ package org.kontalk.model.chat;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Optional;
@@ -33,6 +37,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.kontalk.model.message.InMessage;
 import org.kontalk.model.message.KonMessage;
 import org.kontalk.model.message.OutMessage;
 import org.kontalk.persistence.Database;
@@ -55,14 +61,33 @@ public final class ChatMessages {
     private final Set<KonMessage> mContainsSet =
             Collections.synchronizedSet(new HashSet<>());
 
-    ChatMessages() {
+    private final Chat mChat;
+
+    // not all messages of the database are in memory
+    private volatile boolean mPartial = false;
+
+    ChatMessages(Chat chat) {
+        mChat = chat;
     }
 
-    void load(Database db, Chat chat, Map<Integer, Contact> contactMap) {
-        try (ResultSet messageRS = db.execSelectWhereInsecure(KonMessage.TABLE,
-                KonMessage.COL_CHAT_ID + " == " + chat.getID())) {
+    /**
+     * Load messages from database. If 'limit' is positive only the newest
+     * 'limit' messages and all not finished outgoing messages are loaded.
+     */
+    void load(Database db, Map<Integer, Contact> contactMap, int limit) {
+        String where = KonMessage.COL_CHAT_ID + " == " + mChat.getID();
+        if (limit > 0)
+            where += " AND (" + KonMessage.COL_STATUS + " IN (" +
+                    KonMessage.Status.PENDING.ordinal() + ", " +
+                    KonMessage.Status.SENT.ordinal() + ") OR _id IN (" +
+                    "SELECT _id FROM " + KonMessage.TABLE + " WHERE " + KonMessage.COL_CHAT_ID +
+                    " == " + mChat.getID() + " ORDER BY " + KonMessage.COL_DATE +
+                    " DESC LIMIT " + limit + "))";
+        int count = 0;
+        try (ResultSet messageRS = db.execSelectWhereInsecure(KonMessage.TABLE, where)) {
             while (messageRS.next()) {
-                KonMessage message = KonMessage.load(messageRS, chat, contactMap);
+                count++;
+                KonMessage message = KonMessage.load(messageRS, mChat, contactMap);
                 if (message.getTransmissions().isEmpty())
                     // ignore broken message
                     continue;
@@ -71,6 +96,8 @@ public final class ChatMessages {
         } catch (SQLException ex) {
             LOGGER.log(Level.WARNING, "can't load messages from db", ex);
         }
+        if (limit > 0 && count >= limit)
+            mPartial = true;
     }
 
     /**
@@ -94,6 +121,21 @@ public final class ChatMessages {
         return Collections.unmodifiableSet(mSortedSet);
     }
 
+    /**
+     * Get a page of the message history: the newest messages, at most
+     * 'count', sorted from oldest to newest.
+     */
+    public List<KonMessage> getNewest(int count) {
+        List<KonMessage> messages = new ArrayList<>(Math.min(count, mSortedSet.size()));
+        synchronized(mSortedSet) {
+            Iterator<KonMessage> it = mSortedSet.descendingIterator();
+            while (it.hasNext() && messages.size() < count)
+                messages.add(it.next());
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+
     /** Get all outgoing messages with status "PENDING" for this chat. */
     public SortedSet<OutMessage> getPending() {
         synchronized(mSortedSet) {
@@ -105,13 +147,72 @@ public final class ChatMessages {
         }
     }
 
-    /** Get the newest (i.e. last received) outgoing message. */
+    /**
+     * Get the newest (i.e. last received) outgoing message. Messages not in
+     * memory are loaded from the database.
+     */
     public Optional<OutMessage> getLast(String xmppID) {
+        Optional<OutMessage> optM;
         synchronized(mSortedSet) {
-            return mSortedSet.descendingSet().stream()
+            optM = mSortedSet.descendingSet().stream()
                     .filter(m -> m.getXMPPID().equals(xmppID) && m instanceof OutMessage)
                     .map(m -> (OutMessage) m).findFirst();
         }
+        if (optM.isPresent())
+            return optM;
+
+        // evicted from memory, search database
+        OutMessage message = null;
+        try (ResultSet messageRS = this.selectStored(xmppID, Optional.empty())) {
+            Map<Integer, Contact> contactMap = mChat.getAllContacts().stream()
+                    .collect(Collectors.toMap(Contact::getID, c -> c, (c1, c2) -> c1));
+            while (messageRS.next()) {
+                if (messageRS.getInt(KonMessage.COL_STATUS) == KonMessage.Status.IN.ordinal())
+                    continue;
+                KonMessage m = KonMessage.load(messageRS, mChat, contactMap);
+                if (m instanceof OutMessage &&
+                        (message == null || MESSAGE_COMPARATOR.compare(m, message) > 0))
+                    message = (OutMessage) m;
+            }
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, "can't load message from db", ex);
+        }
+        if (message == null)
+            return Optional.empty();
+        // keep it in memory while waiting for more receipts
+        this.addSilent(message);
+        return Optional.of(message);
+    }
+
+    /**
+     * Return if an incoming message with this XMPP ID exists in this chat.
+     * The database is only searched if messages are not in memory.
+     */
+    public boolean containsIncoming(String xmppID) {
+        synchronized(mSortedSet) {
+            if (mSortedSet.stream().anyMatch(
+                    m -> m instanceof InMessage && m.getXMPPID().equals(xmppID)))
+                return true;
+        }
+        if (!mPartial)
+            return false;
+
+        try (ResultSet messageRS = this.selectStored(xmppID,
+                Optional.of(KonMessage.Status.IN))) {
+            return messageRS.next();
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, "can't search message in db", ex);
+            return false;
+        }
+    }
+
+    private ResultSet selectStored(String xmppID, Optional<KonMessage.Status> status)
+            throws SQLException {
+        Map<String, Object> where = new HashMap<>();
+        where.put(KonMessage.COL_CHAT_ID, mChat.getID());
+        where.put(KonMessage.COL_XMPP_ID, xmppID);
+        status.ifPresent(s -> where.put(KonMessage.COL_STATUS, s.ordinal()));
+        return Model.database().execSelectWhere(KonMessage.TABLE, where);
     }
 
     /** Get the last created message. */
@@ -133,6 +234,39 @@ public final class ChatMessages {
         return mSortedSet.isEmpty();
     }
 
+    /**
+     * Drop the oldest messages from memory, keeping at most the newest
+     * 'keep' messages and all pending outgoing messages. Of the outgoing
+     * messages still waiting for a receipt also at most 'keep' are kept,
+     * others are loaded again when their receipt arrives. The database is
+     * not changed.
+     */
+    public void evict(int keep) {
+        synchronized(mSortedSet) {
+            int excess = mSortedSet.size() - keep;
+            if (excess <= 0)
+                return;
+            long sent = mSortedSet.stream()
+                    .filter(m -> m.getStatus() == KonMessage.Status.SENT)
+                    .count();
+            Iterator<KonMessage> it = mSortedSet.iterator();
+            while (excess > 0 && it.hasNext()) {
+                KonMessage message = it.next();
+                if (message.getStatus() == KonMessage.Status.PENDING)
+                    continue;
+                if (message.getStatus() == KonMessage.Status.SENT) {
+                    if (sent <= keep)
+                        continue;
+                    sent--;
+                }
+                it.remove();
+                mContainsSet.remove(message);
+                excess--;
+                mPartial = true;
+            }
+        }
+    }
+
     public Optional<KonMessage> getPredecessor(KonMessage message) {
         SortedSet<KonMessage> headSet = mSortedSet.headSet(message);
         return headSet.isEmpty() ? Optional.empty() : Optional.of(headSet.last());
@@ -19,8 +19,10 @@
 package org.kontalk.model.chat;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -129,17 +131,26 @@ public abstract class GroupChat<D extends GroupMetaData> extends Chat {
 
     @Override
     public void setChatState(final Contact contact, ChatState chatState) {
-        Member member = mMemberSet.stream()
-                .filter(m -> m.getContact().equals(contact))
-                .findFirst().orElse(null);
+        this.setChatStates(Collections.singletonMap(contact, chatState));
+    }
 
-        if (member == null) {
-            LOGGER.warning("can't find member in member set!?");
-            return;
+    /** Set states of many members, observers are notified once. */
+    public void setChatStates(Map<Contact, ChatState> states) {
+        boolean changed = false;
+        int found = 0;
+        for (Member member : mMemberSet) {
+            ChatState state = states.get(member.getContact());
+            if (state != null) {
+                found++;
+                changed |= member.setState(state);
+            }
         }
 
-        member.setState(chatState);
-        this.changed(ViewChange.MEMBER_STATE);
+        if (found < states.size())
+            LOGGER.warning("can't find member in member set!?");
+
+        if (changed)
+            this.changed(ViewChange.MEMBER_STATE);
     }
 
     public void applyGroupChanges(
@@ -107,10 +107,14 @@ public final class Member extends ProtoMember {
         return db.execDelete(TABLE, mID);
     }
 
-    void setState(ChatState state) {
-        mState = state;
-        if (mState == ChatState.active || mState == ChatState.composing)
+    /** Return true if the state changed. */
+    boolean setState(ChatState state) {
+        if (state == ChatState.active || state == ChatState.composing)
             mLastActive = new Date();
+        if (state == mState)
+            return false;
+        mState = state;
+        return true;
     }
 
     /** Load Members of a chat. */
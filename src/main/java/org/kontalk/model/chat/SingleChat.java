@@ -122,8 +122,8 @@ public final class SingleChat extends Chat {
             LOGGER.warning("wrong contact!?");
             return;
         }
-        mMember.setState(chatState);
-        this.changed(ViewChange.MEMBER_STATE);
+        if (mMember.setState(chatState))
+            this.changed(ViewChange.MEMBER_STATE);
     }
 
     @Override
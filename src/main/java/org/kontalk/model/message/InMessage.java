@@ -77,14 +77,14 @@ public final class InMessage extends KonMessage implements DecryptMessage {
     @Override
     public void setSigning(Coder.Signing signing) {
         mCoderStatus.setSigning(signing);
-        this.save();
+        this.save(Column.CODER_STATUS);
     }
 
     @Override
     public void setDecryptedContent(MessageContent decryptedContent) {
         mContent.setDecryptedContent(decryptedContent);
         mCoderStatus.setDecrypted();
-        this.save();
+        this.save(Column.CONTENT, Column.CODER_STATUS);
         this.changed(ViewChange.CONTENT);
     }
 
@@ -94,7 +94,7 @@ public final class InMessage extends KonMessage implements DecryptMessage {
             return;
 
         attachment.setFile(fileName);
-        this.save();
+        this.save(Column.CONTENT);
         // only tell view if file not encrypted
         if (!attachment.getCoderStatus().isEncrypted())
             this.changed(ViewChange.ATTACHMENT);
@@ -106,7 +106,7 @@ public final class InMessage extends KonMessage implements DecryptMessage {
             return;
 
         attachment.getCoderStatus().setSigning(signing);
-        this.save();
+        this.save(Column.CONTENT);
     }
 
     public void setAttachmentDownloadProgress(int p) {
@@ -125,7 +125,7 @@ public final class InMessage extends KonMessage implements DecryptMessage {
             return;
 
         attachment.setDecryptedFile(filename);
-        this.save();
+        this.save(Column.CONTENT);
         this.changed(ViewChange.ATTACHMENT);
     }
 
@@ -136,7 +136,7 @@ public final class InMessage extends KonMessage implements DecryptMessage {
             return;
         }
         preview.setFilename(filename);
-        this.save();
+        this.save(Column.CONTENT);
         this.changed(ViewChange.ATTACHMENT);
     }
 
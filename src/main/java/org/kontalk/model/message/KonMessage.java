@@ -75,6 +75,11 @@ public abstract class KonMessage extends Observable implements Searchable {
         STATUS, CONTENT, ATTACHMENT
     }
 
+    /** Groups of mutable database columns, saved only if changed. */
+    enum Column {
+        STATUS, CONTENT, CODER_STATUS, SERVER_ERROR, SERVER_DATE
+    }
+
     public static final String TABLE = "messages";
     public static final String COL_CHAT_ID = "thread_id";
     //public static final String COL_DIR = "direction";
@@ -97,8 +102,8 @@ public abstract class KonMessage extends Observable implements Searchable {
             COL_DATE + " INTEGER NOT NULL, " +
             // enum, message sending status
             COL_STATUS + " INTEGER NOT NULL, " +
-            // message content in JSON format
-            COL_CONTENT + " TEXT NOT NULL, " +
+            // message content in binary encoding
+            COL_CONTENT + " BLOB NOT NULL, " +
             // enum, determines if content is encrypted
             COL_ENCR_STAT + " INTEGER NOT NULL, " +
             // enum, determines if content is verified
@@ -126,6 +131,9 @@ public abstract class KonMessage extends Observable implements Searchable {
     final CoderStatus mCoderStatus;
     ServerError mServerError;
 
+    // columns changed but not saved yet; guarded by this
+    private final EnumSet<Column> mDirty = EnumSet.noneOf(Column.class);
+
     KonMessage(Chat chat,
                String xmppID,
                MessageContent content,
@@ -149,8 +157,8 @@ public abstract class KonMessage extends Observable implements Searchable {
                 mDate,
                 mStatus,
         // i simply don't like to save all possible content explicitly in the
-        // database, so we use JSON here
-                mContent.toJSON(),
+        // database, so we use an own binary encoding here
+                mContent.toBytes(),
                 mCoderStatus.getEncryption(),
                 mCoderStatus.getSigning(),
                 mCoderStatus.getErrors(),
@@ -221,7 +229,7 @@ public abstract class KonMessage extends Observable implements Searchable {
             return;
 
         attachment.getCoderStatus().setSecurityErrors(errors);
-        this.save();
+        this.save(Column.CONTENT);
     }
 
     MessageContent.Attachment getAttachment() {
@@ -239,7 +247,7 @@ public abstract class KonMessage extends Observable implements Searchable {
 
     public void setSecurityErrors(EnumSet<Coder.Error> errors) {
         mCoderStatus.setSecurityErrors(errors);
-        this.save();
+        this.save(Column.CODER_STATUS);
         this.changed(ViewChange.STATUS);
     }
 
@@ -249,7 +257,7 @@ public abstract class KonMessage extends Observable implements Searchable {
 
     public void setPreview(Preview preview) {
         mContent.setPreview(preview);
-        this.save();
+        this.save(Column.CONTENT);
         this.changed(ViewChange.ATTACHMENT);
     }
 
@@ -271,15 +279,42 @@ public abstract class KonMessage extends Observable implements Searchable {
                        Optional.of(((InMessage) this).getContact()) : Optional.empty();
     }
 
-    void save() {
+    /** Mark columns as changed, they are written with the next save. */
+    synchronized void markDirty(Column column) {
+        mDirty.add(column);
+    }
+
+    /** Save all changed columns, including the given ones, to database. */
+    void save(Column... changed) {
         Map<String, Object> set = new HashMap<>();
-        set.put(COL_STATUS, mStatus);
-        set.put(COL_CONTENT, mContent.toJSON());
-        set.put(COL_ENCR_STAT, mCoderStatus.getEncryption());
-        set.put(COL_SIGN_STAT, mCoderStatus.getSigning());
-        set.put(COL_COD_ERR, mCoderStatus.getErrors());
-        set.put(COL_SERV_ERR, Database.setString(mServerError.toJSON()));
-        set.put(COL_SERV_DATE, mServerDate);
+        synchronized (this) {
+            mDirty.addAll(Arrays.asList(changed));
+            for (Column column : mDirty) {
+                switch (column) {
+                    case STATUS:
+                        set.put(COL_STATUS, mStatus);
+                        break;
+                    case CONTENT:
+                        set.put(COL_CONTENT, mContent.toBytes());
+                        break;
+                    case CODER_STATUS:
+                        set.put(COL_ENCR_STAT, mCoderStatus.getEncryption());
+                        set.put(COL_SIGN_STAT, mCoderStatus.getSigning());
+                        set.put(COL_COD_ERR, mCoderStatus.getErrors());
+                        break;
+                    case SERVER_ERROR:
+                        set.put(COL_SERV_ERR, Database.setString(mServerError.toJSON()));
+                        break;
+                    case SERVER_DATE:
+                        set.put(COL_SERV_DATE, mServerDate);
+                        break;
+                }
+            }
+            mDirty.clear();
+        }
+        if (set.isEmpty())
+            return;
+
         Model.database().execUpdate(TABLE, set, mID);
     }
 
@@ -342,9 +377,9 @@ public abstract class KonMessage extends Observable implements Searchable {
         int statusIndex = messageRS.getInt(KonMessage.COL_STATUS);
         KonMessage.Status status = KonMessage.Status.values()[statusIndex];
 
-        String jsonContent = messageRS.getString(KonMessage.COL_CONTENT);
+        byte[] contentData = messageRS.getBytes(KonMessage.COL_CONTENT);
 
-        MessageContent content = MessageContent.fromJSONString(jsonContent);
+        MessageContent content = MessageContent.fromBytes(contentData);
 
         int encryptionIndex = messageRS.getInt(KonMessage.COL_ENCR_STAT);
         Coder.Encryption encryption = Coder.Encryption.values()[encryptionIndex];
@@ -376,6 +411,11 @@ public abstract class KonMessage extends Observable implements Searchable {
         return builder.build();
     }
 
+    /** Convert content column value of database versions before 6. */
+    public static byte[] convertLegacyContent(String jsonContent) {
+        return MessageContent.fromJSONString(jsonContent).toBytes();
+    }
+
     public static final class ServerError {
         private static final String JSON_COND = "cond";
         private static final String JSON_TEXT = "text";
@@ -0,0 +1,101 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.model.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A part of message content that is decoded from its binary encoding only
+ * when accessed the first time.
+ *
+ * As long as the part was not accessed, encoding it again returns the
+ * original bytes.
+ *
+ * @param <T> type of the decoded part
+ */
+final class LazyPart<T> {
+    private static final Logger LOGGER = Logger.getLogger(LazyPart.class.getName());
+
+    interface Decoder<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    interface Encoder<T> {
+        void write(T value, DataOutputStream out) throws IOException;
+    }
+
+    // encoded data, null if decoded
+    private byte[] mData;
+    private Decoder<T> mDecoder;
+    // decoded value, null if not decoded or decoding failed
+    private T mValue = null;
+
+    private LazyPart(byte[] data, Decoder<T> decoder, T value) {
+        mData = data;
+        mDecoder = decoder;
+        mValue = value;
+    }
+
+    static <T> LazyPart<T> of(T value) {
+        return new LazyPart<>(null, null, value);
+    }
+
+    static <T> LazyPart<T> encoded(byte[] data, Decoder<T> decoder) {
+        return new LazyPart<>(data, decoder, null);
+    }
+
+    synchronized Optional<T> get() {
+        if (mData != null) {
+            try {
+                mValue = mDecoder.read(new DataInputStream(new ByteArrayInputStream(mData)));
+            } catch (IOException | RuntimeException ex) {
+                // e.g. invalid URI or path in stored data
+                LOGGER.log(Level.WARNING, "can't decode content part", ex);
+            }
+            mData = null;
+            mDecoder = null;
+        }
+        return Optional.ofNullable(mValue);
+    }
+
+    /** Return encoded data, empty if there is no (valid) value. */
+    synchronized Optional<byte[]> encode(Encoder<T> encoder) throws IOException {
+        if (mData != null)
+            return Optional.of(mData);
+
+        if (mValue == null)
+            return Optional.empty();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encoder.write(mValue, new DataOutputStream(bytes));
+        return Optional.of(bytes.toByteArray());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mData != null ? "{encoded:"+mData.length+"}" : String.valueOf(mValue);
+    }
+}
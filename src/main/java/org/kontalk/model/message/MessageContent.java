@@ -18,9 +18,16 @@
 
 package org.kontalk.model.message;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
@@ -30,7 +37,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 import org.kontalk.crypto.Coder;
 import org.kontalk.misc.JID;
@@ -42,6 +48,9 @@ import org.kontalk.util.EncodingUtils;
  * All possible content a message can contain.
  * Recursive: A message can contain a decrypted message.
  *
+ * Saved in a compact binary encoding. Attachment, preview, group command and
+ * decrypted content are decoded on first access only.
+ *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
 public class MessageContent {
@@ -54,15 +63,18 @@ public class MessageContent {
     // temporary encrypted data, not saved to database
     private byte[] mEncryptedData;
     // attachment (file url, path and metadata)
-    private final Attachment mAttachment;
+    private final LazyPart<Attachment> mAttachment;
     // small preview file of attachment
-    private Preview mPreview;
+    private LazyPart<Preview> mPreview;
     // group id
     private final KonGroupData mGroupData;
     // group command
-    private final GroupCommand mGroupCommand;
+    private final LazyPart<GroupCommand> mGroupCommand;
     // decrypted message content
-    private MessageContent mDecryptedContent;
+    private LazyPart<MessageContent> mDecryptedContent;
+
+    /** First byte of binary encoding. Legacy JSON encoding starts with '{'. */
+    private static final byte FORMAT_VERSION = 1;
 
     private static final String JSON_PLAIN_TEXT = "plain_text";
     private static final String JSON_ENC_CONTENT = "encrypted_content";
@@ -87,15 +99,41 @@ public class MessageContent {
         return new Builder("", "").groupCommand(group).build();
     }
 
-    // used when loading from db
     private MessageContent(Builder builder) {
         mPlainText = builder.mPlainText;
         mEncryptedContent = builder.mEncrypted;
-        mAttachment = builder.mAttachment;
-        mPreview = builder.mPreview;
+        mAttachment = lazyOrNull(builder.mAttachment);
+        mPreview = lazyOrNull(builder.mPreview);
         mGroupData = builder.mGroupData;
-        mGroupCommand = builder.mGroup;
-        mDecryptedContent = builder.mDecrypted;
+        mGroupCommand = lazyOrNull(builder.mGroup);
+        mDecryptedContent = lazyOrNull(builder.mDecrypted);
+    }
+
+    // used when loading from db
+    private MessageContent(String plainText, String encrypted,
+            LazyPart<Attachment> attachment,
+            LazyPart<Preview> preview,
+            LazyPart<GroupCommand> groupCommand,
+            LazyPart<MessageContent> decrypted) {
+        mPlainText = plainText;
+        mEncryptedContent = encrypted;
+        mAttachment = attachment;
+        mPreview = preview;
+        mGroupData = null;
+        mGroupCommand = groupCommand;
+        mDecryptedContent = decrypted;
+    }
+
+    private static <T> LazyPart<T> lazyOrNull(T value) {
+        return value == null ? null : LazyPart.of(value);
+    }
+
+    private static <T> Optional<T> get(LazyPart<T> part) {
+        return part == null ? Optional.empty() : part.get();
+    }
+
+    private Optional<MessageContent> decrypted() {
+        return get(mDecryptedContent);
     }
 
     /**
@@ -104,8 +142,9 @@ public class MessageContent {
      * plain text either returns an empty string.
      */
     public String getText() {
-        if (mDecryptedContent != null)
-            return mDecryptedContent.getPlainText();
+        MessageContent decrypted = this.decrypted().orElse(null);
+        if (decrypted != null)
+            return decrypted.getPlainText();
         else
             return mPlainText;
     }
@@ -115,11 +154,11 @@ public class MessageContent {
     }
 
     public Optional<Attachment> getAttachment() {
-        if (mDecryptedContent != null &&
-                mDecryptedContent.getAttachment().isPresent()) {
-            return mDecryptedContent.getAttachment();
+        MessageContent decrypted = this.decrypted().orElse(null);
+        if (decrypted != null && decrypted.getAttachment().isPresent()) {
+            return decrypted.getAttachment();
         }
-        return Optional.ofNullable(mAttachment);
+        return get(mAttachment);
     }
 
     public String getEncryptedContent() {
@@ -128,7 +167,7 @@ public class MessageContent {
 
     void setDecryptedContent(MessageContent decryptedContent) {
         assert mDecryptedContent == null;
-        mDecryptedContent = decryptedContent;
+        mDecryptedContent = LazyPart.of(decryptedContent);
         // deleting encrypted data!
         mEncryptedContent = "";
     }
@@ -142,11 +181,11 @@ public class MessageContent {
     }
 
     public Optional<Preview> getPreview() {
-        if (mDecryptedContent != null &&
-                mDecryptedContent.getPreview().isPresent()) {
-            return mDecryptedContent.getPreview();
+        MessageContent decrypted = this.decrypted().orElse(null);
+        if (decrypted != null && decrypted.getPreview().isPresent()) {
+            return decrypted.getPreview();
         }
-        return Optional.ofNullable(mPreview);
+        return get(mPreview);
     }
 
     void setPreview(Preview preview) {
@@ -154,23 +193,23 @@ public class MessageContent {
             LOGGER.warning("preview already present, not overwriting");
             return;
         }
-        mPreview = preview;
+        mPreview = LazyPart.of(preview);
     }
 
     public Optional<KonGroupData> getGroupData() {
-        if (mDecryptedContent != null &&
-                mDecryptedContent.getGroupData().isPresent()) {
-            return mDecryptedContent.getGroupData();
+        MessageContent decrypted = this.decrypted().orElse(null);
+        if (decrypted != null && decrypted.getGroupData().isPresent()) {
+            return decrypted.getGroupData();
         }
         return Optional.ofNullable(mGroupData);
     }
 
     public Optional<GroupCommand> getGroupCommand() {
-        if (mDecryptedContent != null &&
-                mDecryptedContent.getGroupCommand().isPresent()) {
-            return mDecryptedContent.getGroupCommand();
+        MessageContent decrypted = this.decrypted().orElse(null);
+        if (decrypted != null && decrypted.getGroupCommand().isPresent()) {
+            return decrypted.getGroupCommand();
         }
-        return Optional.ofNullable(mGroupCommand);
+        return get(mGroupCommand);
     }
 
     /**
@@ -180,14 +219,15 @@ public class MessageContent {
     public boolean isEmpty() {
         return mPlainText.isEmpty() &&
                 mEncryptedContent.isEmpty() &&
-                mAttachment == null &&
-                mPreview == null &&
-                mDecryptedContent == null &&
-                mGroupCommand == null;
+                // a part that can't be decoded is no content
+                !get(mAttachment).isPresent() &&
+                !get(mPreview).isPresent() &&
+                !this.decrypted().isPresent() &&
+                !get(mGroupCommand).isPresent();
     }
 
     public boolean isComplex() {
-        return mAttachment != null || mGroupCommand != null;
+        return get(mAttachment).isPresent() || get(mGroupCommand).isPresent();
     }
 
     @Override
@@ -197,30 +237,121 @@ public class MessageContent {
                 +",decr="+mDecryptedContent;
     }
 
-    // using legacy lib, raw types extend Object
-    @SuppressWarnings("unchecked")
-    String toJSON() {
-        JSONObject json = new JSONObject();
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(FORMAT_VERSION);
+            write(this, out);
+        } catch (IOException ex) {
+            // should never happen
+            LOGGER.log(Level.WARNING, "can't encode message content", ex);
+            return new byte[0];
+        }
+        return bytes.toByteArray();
+    }
 
-        EncodingUtils.putJSON(json, JSON_PLAIN_TEXT, mPlainText);
+    private static void write(MessageContent c, DataOutputStream out) throws IOException {
+        writeString(out, c.mPlainText);
+        writeString(out, c.mEncryptedContent);
+        writePart(out, c.mAttachment, Attachment::write);
+        writePart(out, c.mPreview, Preview::write);
+        writePart(out, c.mGroupCommand, GroupCommand::write);
+        writePart(out, c.mDecryptedContent, MessageContent::write);
+    }
 
-        if (mAttachment != null)
-            json.put(JSON_ATTACHMENT, mAttachment.toJSONString());
+    static MessageContent fromBytes(byte[] data) {
+        if (data == null || data.length == 0)
+            return plainText("");
 
-        EncodingUtils.putJSON(json, JSON_ENC_CONTENT, mEncryptedContent);
+        if (data[0] != FORMAT_VERSION)
+            // not updated database
+            return fromJSONString(new String(data, StandardCharsets.UTF_8));
 
-        if (mPreview != null)
-            json.put(JSON_PREVIEW, mPreview.toJSON());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            in.readByte();
+            return read(in);
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "can't decode message content", ex);
+            return plainText("");
+        }
+    }
 
-        if (mGroupCommand != null)
-            json.put(JSON_GROUP_COMMAND, mGroupCommand.toJSON());
+    private static MessageContent read(DataInputStream in) throws IOException {
+        String plainText = readString(in);
+        String encrypted = readString(in);
+        return new MessageContent(plainText, encrypted,
+                readPart(in, Attachment::read),
+                readPart(in, Preview::read),
+                readPart(in, GroupCommand::read),
+                readPart(in, MessageContent::read));
+    }
 
-        if (mDecryptedContent != null)
-            json.put(JSON_DEC_CONTENT, mDecryptedContent.toJSON());
+    private static <T> void writePart(DataOutputStream out, LazyPart<T> part,
+            LazyPart.Encoder<T> encoder) throws IOException {
+        byte[] data = part == null ? null : part.encode(encoder).orElse(null);
+        if (data == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static <T> LazyPart<T> readPart(DataInputStream in,
+            LazyPart.Decoder<T> decoder) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        if (length > in.available())
+            throw new IOException("invalid part length: "+length);
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return LazyPart.encoded(data, decoder);
+    }
+
+    // not limited to 64KB like writeUTF()
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] data = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available())
+            throw new IOException("invalid string length: "+length);
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInputStream in, E[] values)
+            throws IOException {
+        int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= values.length)
+            throw new IOException("invalid ordinal: "+ordinal);
+        return values[ordinal];
+    }
 
-        return json.toJSONString();
+    private static List<JID> readJIDs(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0 || size > in.available())
+            throw new IOException("invalid list size: "+size);
+        List<JID> jids = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            jids.add(JID.bare(readString(in)));
+        return jids;
     }
 
+    private static void writeJIDs(DataOutputStream out, List<JID> jids) throws IOException {
+        out.writeInt(jids.size());
+        for (JID jid : jids)
+            writeString(out, jid.string());
+    }
+
+    /** Content encoding of database versions before 6. */
     static MessageContent fromJSONString(String jsonContent) {
         Object obj = JSONValue.parse(jsonContent);
         try {
@@ -374,19 +505,26 @@ public class MessageContent {
                     +",length="+mLength+",status="+mCoderStatus+"}";
         }
 
-        // using legacy lib, raw types extend Object
-        @SuppressWarnings("unchecked")
-        private String toJSONString() {
-            JSONObject json = new JSONObject();
-            EncodingUtils.putJSON(json, JSON_URL, mURL.toString());
-            EncodingUtils.putJSON(json, JSON_MIME_TYPE, mMimeType);
-            json.put(JSON_LENGTH, mLength);
-            EncodingUtils.putJSON(json, JSON_FILENAME, mFile.toString());
-            json.put(JSON_ENCRYPTION, mCoderStatus.getEncryption().ordinal());
-            json.put(JSON_SIGNING, mCoderStatus.getSigning().ordinal());
-            int errs = EncodingUtils.enumSetToInt(mCoderStatus.getErrors());
-            json.put(JSON_CODER_ERRORS, errs);
-            return json.toJSONString();
+        private static void write(Attachment a, DataOutputStream out) throws IOException {
+            writeString(out, a.mURL.toString());
+            writeString(out, a.mMimeType);
+            out.writeLong(a.mLength);
+            writeString(out, a.mFile.toString());
+            out.writeByte(a.mCoderStatus.getEncryption().ordinal());
+            out.writeByte(a.mCoderStatus.getSigning().ordinal());
+            out.writeInt(EncodingUtils.enumSetToInt(a.mCoderStatus.getErrors()));
+        }
+
+        private static Attachment read(DataInputStream in) throws IOException {
+            URI url = URI.create(readString(in));
+            String mimeType = readString(in);
+            long length = in.readLong();
+            Path file = Paths.get(readString(in));
+            Coder.Encryption encryption = readEnum(in, Coder.Encryption.values());
+            Coder.Signing signing = readEnum(in, Coder.Signing.values());
+            EnumSet<Coder.Error> errors = EncodingUtils.intToEnumSet(Coder.Error.class, in.readInt());
+            return new Attachment(url, file, mimeType, length,
+                    new CoderStatus(encryption, signing, errors));
         }
 
         private static Attachment fromJSONOrNull(String json) {
@@ -464,13 +602,15 @@ public class MessageContent {
             return mMimeType;
         }
 
-        // using legacy lib, raw types extend Object
-        @SuppressWarnings("unchecked")
-        private String toJSON() {
-            JSONObject json = new JSONObject();
-            EncodingUtils.putJSON(json, JSON_MIME_TYPE, mMimeType);
-            EncodingUtils.putJSON(json, JSON_FILENAME, mFilename);
-            return json.toJSONString();
+        private static void write(Preview p, DataOutputStream out) throws IOException {
+            writeString(out, p.mMimeType);
+            writeString(out, p.mFilename);
+        }
+
+        private static Preview read(DataInputStream in) throws IOException {
+            String mimeType = readString(in);
+            String filename = readString(in);
+            return new Preview(filename, mimeType);
         }
 
         private static Preview fromJSONOrNull(String json) {
@@ -557,24 +697,19 @@ public class MessageContent {
             return mSubject;
         }
 
-        // using legacy lib, raw types extend Object
-        @SuppressWarnings("unchecked")
-        private String toJSON() {
-            JSONObject json = new JSONObject();
-            json.put(JSON_OP, mOP.ordinal());
-            EncodingUtils.putJSON(json, JSON_SUBJECT, mSubject);
-
-            List<String> added = mAdded.stream()
-                    .map(JID::string)
-                    .collect(Collectors.toList());
-            json.put(JSON_ADDED, added);
-
-            List<String> removed = mRemoved.stream()
-                    .map(JID::string)
-                    .collect(Collectors.toList());
-            json.put(JSON_REMOVED, removed);
-
-            return json.toJSONString();
+        private static void write(GroupCommand g, DataOutputStream out) throws IOException {
+            out.writeByte(g.mOP.ordinal());
+            writeString(out, g.mSubject);
+            writeJIDs(out, g.mAdded);
+            writeJIDs(out, g.mRemoved);
+        }
+
+        private static GroupCommand read(DataInputStream in) throws IOException {
+            OP op = readEnum(in, OP.values());
+            String subject = readString(in);
+            List<JID> added = readJIDs(in);
+            List<JID> removed = readJIDs(in);
+            return new GroupCommand(op, added, removed, subject);
         }
 
         // using legacy lib
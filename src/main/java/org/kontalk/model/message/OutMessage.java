@@ -97,9 +97,11 @@ public final class OutMessage extends KonMessage {
             LOGGER.warning("unexpected new status of sent message: "+status);
 
         mStatus = status;
-        if (status != Status.PENDING)
+        if (status != Status.PENDING) {
             mServerDate = new Date();
-        this.save();
+            this.markDirty(Column.SERVER_DATE);
+        }
+        this.save(Column.STATUS);
         this.changed(ViewChange.STATUS);
     }
 
@@ -108,6 +110,7 @@ public final class OutMessage extends KonMessage {
         if (mStatus != Status.SENT)
             LOGGER.warning("unexpected status of message with error: "+mStatus);
         mServerError = new KonMessage.ServerError(condition, text);
+        this.markDirty(Column.SERVER_ERROR);
         this.setStatus(Status.ERROR);
     }
 
@@ -118,7 +121,7 @@ public final class OutMessage extends KonMessage {
             return;
 
         attachment.updateUploaded(url, mime, length);
-        this.save();
+        this.save(Column.CONTENT);
     }
 
     public boolean isSendEncrypted() {
@@ -106,6 +106,8 @@ final public class Transmission {
     }
 
     void setReceived(Date date) {
+        if (date.equals(mReceivedDate))
+            return;
         mReceivedDate = date;
         this.save();
     }
@@ -65,6 +65,7 @@ public final class Config extends PropertiesConfiguration {
     public static final String MAIN_TRAY = "main.tray";
     public static final String MAIN_TRAY_CLOSE = "main.tray_close";
     public static final String MAIN_ENTER_SENDS = "main.enter_sends";
+    public static final String MAIN_METRICS_DUMP = "main.metrics_dump";
 
     // default server address
     //public static final String DEFAULT_SERV_NET = "kontalk.net";
@@ -114,6 +115,7 @@ public final class Config extends PropertiesConfiguration {
         map.put(MAIN_TRAY, true);
         map.put(MAIN_TRAY_CLOSE, false);
         map.put(MAIN_ENTER_SENDS, true);
+        map.put(MAIN_METRICS_DUMP, false);
 
         map.entrySet().stream()
                 .filter(e -> !this.containsKey(e.getKey()))
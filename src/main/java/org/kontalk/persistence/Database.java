@@ -32,12 +32,14 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
 import org.kontalk.misc.JID;
 import org.kontalk.misc.KonException;
+import org.kontalk.misc.Metrics;
 import org.kontalk.model.message.KonMessage;
 import org.kontalk.model.chat.Chat;
 import org.kontalk.model.Contact;
@@ -59,16 +61,29 @@ import org.sqlite.SQLiteConfig;
 public final class Database {
     private static final Logger LOGGER = Logger.getLogger(Database.class.getName());
 
+    // latencies of statements, without commit if in a batch
+    private static final Metrics.Histogram INSERT_TIME = Metrics.histogram("db.insert");
+    private static final Metrics.Histogram UPDATE_TIME = Metrics.histogram("db.update");
+    private static final Metrics.Histogram QUERY_TIME = Metrics.histogram("db.query");
+
     public static final String SQL_ID = "_id INTEGER PRIMARY KEY AUTOINCREMENT, ";
 
     private static final String FILENAME = "kontalk_db.sqlite";
-    private static final int DB_VERSION = 5;
+    private static final int DB_VERSION = 7;
     private static final String SQL_CREATE = "CREATE TABLE IF NOT EXISTS ";
     private static final String SV = "schema_version";
     private static final String UV = "user_version";
 
     private Connection mConn = null;
 
+    // estimated size of all values written by inserts and updates; read
+    // without lock
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    // number of open batches, changes are not committed if > 0; guarded by this
+    private int mBatchDepth = 0;
+    // if any open batch failed; guarded by this
+    private boolean mBatchFailed = false;
+
     public Database(Path appDir) throws KonException {
         // load the sqlite-JDBC driver using the current class loader
         try {
@@ -117,6 +132,7 @@ public final class Database {
                 this.createTable(stat, Member.TABLE, Member.SCHEMA);
                 this.createTable(stat, KonMessage.TABLE, KonMessage.SCHEMA);
                 this.createTable(stat, Transmission.TABLE, Transmission.SCHEMA);
+                this.createMessageIndex(stat);
             } catch (SQLException ex) {
                 LOGGER.log(Level.SEVERE, "can't create tables", ex);
                 throw new KonException(KonException.Error.DB, ex);
@@ -146,6 +162,12 @@ public final class Database {
         stat.executeUpdate(SQL_CREATE + table + " " + schema);
     }
 
+    // for looking up messages by XMPP ID (receipts, duplicates)
+    private void createMessageIndex(Statement stat) throws SQLException {
+        stat.executeUpdate("CREATE INDEX IF NOT EXISTS " + KonMessage.TABLE + "_xmpp_id ON " +
+                KonMessage.TABLE + " (" + KonMessage.COL_CHAT_ID + ", " + KonMessage.COL_XMPP_ID + ")");
+    }
+
     private void update(int fromVersion) throws SQLException {
         if (fromVersion < 1) {
             mConn.createStatement().execute("ALTER TABLE "+Chat.TABLE+
@@ -184,6 +206,23 @@ public final class Database {
             mConn.createStatement().execute("ALTER TABLE "+Member.TABLE+
                     " ADD COLUMN "+Member.COL_ROLE+" DEFAULT 0");
         }
+        if (fromVersion < 6) {
+            // message content: JSON -> binary encoding
+            try (ResultSet rs = this.execQuery("SELECT _id, "+KonMessage.COL_CONTENT+
+                    " FROM "+KonMessage.TABLE);
+                    PreparedStatement stat = mConn.prepareStatement("UPDATE "+KonMessage.TABLE+
+                            " SET "+KonMessage.COL_CONTENT+" = ? WHERE _id == ?")) {
+                while (rs.next()) {
+                    stat.setBytes(1, KonMessage.convertLegacyContent(rs.getString(2)));
+                    stat.setInt(2, rs.getInt(1));
+                    stat.addBatch();
+                }
+                stat.executeBatch();
+            }
+        }
+        if (fromVersion < 7) {
+            this.createMessageIndex(mConn.createStatement());
+        }
 
         // set new version
         mConn.createStatement().execute("PRAGMA "+UV+" = "+DB_VERSION);
@@ -220,12 +259,38 @@ public final class Database {
         return this.execQuery("SELECT * FROM " + table + " WHERE " + where);
     }
 
+    /**
+     * Select rows from one table where each of the given columns is equal to
+     * the given value.
+     * The returned ResultSet must be closed by the caller after usage!
+     */
+    public ResultSet execSelectWhere(String table, Map<String, Object> where)
+            throws SQLException {
+        List<String> keyList = new ArrayList<>(where.keySet());
+        String select = "SELECT * FROM " + table + " WHERE " + StringUtils.join(
+                keyList.stream().map(key -> key + " == ?").collect(Collectors.toList()),
+                " AND ");
+        try {
+            PreparedStatement stat = mConn.prepareStatement(select);
+            insertValues(stat, keyList, where);
+            long start = System.nanoTime();
+            ResultSet resultSet = stat.executeQuery();
+            QUERY_TIME.recordSince(start);
+            return resultSet;
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, "can't execute select: " + select + " " + where, ex);
+            throw ex;
+        }
+    }
+
     private ResultSet execQuery(String select) throws SQLException {
         try {
             PreparedStatement stat = mConn.prepareStatement(select);
             // does not work, i dont care
             //stat.closeOnCompletion();
+            long start = System.nanoTime();
             ResultSet resultSet = stat.executeQuery();
+            QUERY_TIME.recordSince(start);
             return resultSet;
         } catch (SQLException ex) {
             LOGGER.log(Level.WARNING, "can't execute select: " + select, ex);
@@ -249,11 +314,14 @@ public final class Database {
 
         insert += StringUtils.join(vList, ", ") + ")";
 
+        long start = System.nanoTime();
         try (PreparedStatement stat = mConn.prepareStatement(insert,
                 Statement.RETURN_GENERATED_KEYS)) {
-            insertValues(stat, values);
+            mBytesWritten.addAndGet(insertValues(stat, values));
             stat.executeUpdate();
-            mConn.commit();
+            if (mBatchDepth == 0)
+                mConn.commit();
+            INSERT_TIME.recordSince(start);
             ResultSet keys = stat.getGeneratedKeys();
             return keys.getInt(1);
         } catch (SQLException ex) {
@@ -264,7 +332,7 @@ public final class Database {
 
     /** Update values (at most one row). */
     public synchronized void execUpdate(String table, Map<String, Object> set, int id) {
-        LOGGER.config("table: "+table);
+        LOGGER.config("table: "+table+", columns: "+set.keySet());
         String update = "UPDATE OR FAIL " + table + " SET ";
 
         List<String> keyList = new ArrayList<>(set.keySet());
@@ -277,18 +345,24 @@ public final class Database {
         // note: looks like driver doesn't support "LIMIT"
         //update += " LIMIT 1";
 
+        long start = System.nanoTime();
         try (PreparedStatement stat = mConn.prepareStatement(update, Statement.RETURN_GENERATED_KEYS)) {
-            insertValues(stat, keyList, set);
+            mBytesWritten.addAndGet(insertValues(stat, keyList, set));
             stat.executeUpdate();
-            mConn.commit();
+            if (mBatchDepth == 0)
+                mConn.commit();
+            UPDATE_TIME.recordSince(start);
             stat.getGeneratedKeys();
         } catch (SQLException ex) {
             LOGGER.log(Level.WARNING, "can't execute update: " + update + " " + set, ex);
         }
     }
 
-    /** Delete one row. Not commited! Call commit() after deletions. */
-    public boolean execDelete(String table, int id) {
+    /**
+     * Delete one row. Not commited! Call commit() after deletions.
+     * Inside a batch the deletion is commited when the batch ends.
+     */
+    public synchronized boolean execDelete(String table, int id) {
         LOGGER.info("deletion, table: " + table + "; id: " + id);
         try (Statement stat = mConn.createStatement()) {
             stat.executeUpdate("DELETE FROM " + table + " WHERE _id = " + id);
@@ -299,7 +373,37 @@ public final class Database {
         return true;
     }
 
-    public boolean commit() {
+    /**
+     * Run changes as batch: all inserts, updates and deletions are committed
+     * together when the batch ends or rolled back if the changes throw. Other
+     * threads can't write to the database while the changes run, so the
+     * changes must not do anything else that might block, like network
+     * I/O. Batches can be nested, a failing inner batch rolls back the
+     * outermost one.
+     */
+    public synchronized void batch(Runnable changes) {
+        mBatchDepth++;
+        boolean succ = false;
+        try {
+            changes.run();
+            succ = true;
+        } finally {
+            mBatchFailed |= !succ;
+            if (--mBatchDepth == 0) {
+                if (mBatchFailed)
+                    this.rollback();
+                else
+                    this.commit();
+                mBatchFailed = false;
+            }
+        }
+    }
+
+    /** Commit all changes. Deferred to the end if inside a batch. */
+    public synchronized boolean commit() {
+        if (mBatchDepth > 0)
+            return true;
+
         try {
             mConn.commit();
         } catch (SQLException ex) {
@@ -309,19 +413,59 @@ public final class Database {
         return true;
     }
 
-    private static void insertValues(PreparedStatement stat,
+    private void rollback() {
+        LOGGER.warning("batch failed, rolling back");
+        try {
+            mConn.rollback();
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, "can't rollback", ex);
+        }
+    }
+
+    /**
+     * Return the estimated number of bytes of all values written to the
+     * database since start.
+     */
+    public long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    private static int insertValues(PreparedStatement stat,
             List<String> keys,
             Map<String, Object> map) throws SQLException {
+        int bytes = 0;
         for (int i = 0; i < keys.size(); i++) {
-            setValue(stat, i, map.get(keys.get(i)));
+            Object value = map.get(keys.get(i));
+            setValue(stat, i, value);
+            bytes += valueSize(value);
          }
+        return bytes;
     }
 
-    private static void insertValues(PreparedStatement stat,
+    private static int insertValues(PreparedStatement stat,
             List<Object> values) throws SQLException {
+        int bytes = 0;
         for (int i = 0; i < values.size(); i++) {
             setValue(stat, i, values.get(i));
+            bytes += valueSize(values.get(i));
         }
+        return bytes;
+    }
+
+    // approximate storage size of a value
+    private static int valueSize(Object value) {
+        if (value instanceof String)
+            return ((String) value).length();
+        if (value instanceof byte[])
+            return ((byte[]) value).length;
+        if (value instanceof JID)
+            return ((JID) value).string().length();
+        if (value instanceof Optional)
+            return valueSize(((Optional<?>) value).orElse(null));
+        if (value == null)
+            return 0;
+        // numbers, dates and enums
+        return 8;
     }
 
     private static void setValue(PreparedStatement stat, int i, Object value)
@@ -342,6 +486,8 @@ public final class Database {
                 setValue(stat, i, ((Optional<?>) value).orElse(null));
             } else if (value instanceof JID) {
                 stat.setString(i+1, ((JID) value).string());
+            } else if (value instanceof byte[]) {
+                stat.setBytes(i+1, (byte[]) value);
             } else if (value == null) {
                 stat.setNull(i+1, Types.NULL);
             } else {
@@ -29,7 +29,8 @@ import java.net.URLEncoder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +42,7 @@ import org.kontalk.crypto.Coder;
 import org.kontalk.crypto.Coder.Encryption;
 import org.kontalk.crypto.PersonalKey;
 import org.kontalk.misc.KonException;
+import org.kontalk.misc.Metrics;
 import org.kontalk.model.message.InMessage;
 import org.kontalk.model.message.KonMessage;
 import org.kontalk.model.message.MessageContent;
@@ -57,7 +59,7 @@ import org.kontalk.util.MediaUtils;
  *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
-public class AttachmentManager implements Runnable {
+public class AttachmentManager {
     private static final Logger LOGGER = Logger.getLogger(AttachmentManager.class.getName());
 
     private static final String ATT_DIRNAME = "attachments";
@@ -70,6 +72,11 @@ public class AttachmentManager implements Runnable {
     public static final String ENCRYPT_PREFIX = "encrypted_";
     public static final int MAX_ATT_SIZE = 20 * 1024 * 1024;
 
+    /** Minimum time between two progress reports, in milliseconds. */
+    private static final long PROGRESS_INTERVAL = 250;
+    /** Minimum progress between two progress reports, in percent. */
+    private static final int PROGRESS_DELTA = 1;
+
     public static class Slot {
         final URI uploadURL;
         final URI downloadURL;
@@ -89,28 +96,63 @@ public class AttachmentManager implements Runnable {
     private final Control mControl;
     private final Client mClient;
 
-    private final LinkedBlockingQueue<Task> mQueue = new LinkedBlockingQueue<>();
+    // one transfer at a time
+    private final Executor mQueue = Scheduler.getInstance().serial(Scheduler.Pool.TRANSFER);
+    // transfers waiting or running
+    private final AtomicInteger mQueued = new AtomicInteger();
     private final Path mAttachmentDir;
     private final Path mPreviewDir;
 
-    private static class Task {
+    /**
+     * Throttles byte progress of a download, reports to message and view
+     * only if enough time passed and progress was made.
+     */
+    private final class DownloadProgress implements HTTPFileClient.ProgressListener {
+        private final InMessage mMessage;
+        private final long mStart = System.currentTimeMillis();
+        private long mLastReport = 0;
+        private int mLastPercent = -1;
+
+        DownloadProgress(InMessage message) {
+            mMessage = message;
+        }
 
-        private Task() {}
+        @Override
+        public void updateProgress(int p) {
+            mMessage.setAttachmentDownloadProgress(p);
+        }
 
-        static final class UploadTask extends Task {
-            final OutMessage message;
+        @Override
+        public void updateBytes(long transferred, long total) {
+            long now = System.currentTimeMillis();
+            // file size may be wrong, finished is only reported at the end
+            int percent = total > 0 ? (int) Math.min(transferred * 100 / total, 99) : -1;
+            if (now - mLastReport < PROGRESS_INTERVAL)
+                return;
+            if (percent >= 0 && percent - mLastPercent < PROGRESS_DELTA)
+                return;
 
-            public UploadTask(OutMessage message) {
-                this.message = message;
-            }
+            this.report(now, transferred, total, percent);
         }
 
-        static final class DownloadTask extends Task {
-            final InMessage message;
+        @Override
+        public void finished(long transferred) {
+            this.report(System.currentTimeMillis(), transferred, transferred, 100);
+        }
 
-            public DownloadTask(InMessage message) {
-                this.message = message;
-            }
+        private void report(long now, long transferred, long total, int percent) {
+            mLastReport = now;
+            mLastPercent = percent;
+
+            long millis = Math.max(now - mStart, 1);
+            long bytesPerSecond = transferred * 1000 / millis;
+            long eta = total > 0 && bytesPerSecond > 0 ?
+                    Math.max(total - transferred, 0) / bytesPerSecond :
+                    -1;
+
+            if (percent >= 0)
+                mMessage.setAttachmentDownloadProgress(percent);
+            mControl.onTransferProgress(mMessage, transferred, total, bytesPerSecond, eta);
         }
     }
 
@@ -124,30 +166,31 @@ public class AttachmentManager implements Runnable {
         mPreviewDir = baseDir.resolve(PREVIEW_DIRNAME);
         if (mPreviewDir.toFile().mkdir())
             LOGGER.info("created preview directory");
+
+        Metrics.gauge("attachments.queued", mQueued::get);
     }
 
     static AttachmentManager create(Control control, Client client, Path appDir) {
-        AttachmentManager manager = new AttachmentManager(control, client, appDir);
-
-        Thread thread = new Thread(manager, "Attachment Transfer");
-        thread.setDaemon(true);
-        thread.start();
-
-        return manager;
+        return new AttachmentManager(control, client, appDir);
     }
 
     void queueUpload(OutMessage message) {
-        boolean added = mQueue.offer(new Task.UploadTask(message));
-        if (!added) {
-            LOGGER.warning("can't add upload message to queue");
-        }
+        this.enqueue(() -> this.uploadAsync(message));
     }
 
     void queueDownload(InMessage message) {
-        boolean added = mQueue.offer(new Task.DownloadTask(message));
-        if (!added) {
-            LOGGER.warning("can't add download message to queue");
-        }
+        this.enqueue(() -> this.downloadAsync(message));
+    }
+
+    private void enqueue(Runnable transfer) {
+        mQueued.incrementAndGet();
+        mQueue.execute(() -> {
+            try {
+                transfer.run();
+            } finally {
+                mQueued.decrementAndGet();
+            }
+        });
     }
 
     private void uploadAsync(OutMessage message) {
@@ -261,12 +304,7 @@ public class AttachmentManager implements Runnable {
         if (client == null)
             return;
 
-        HTTPFileClient.ProgressListener listener = new HTTPFileClient.ProgressListener() {
-            @Override
-            public void updateProgress(int p) {
-                message.setAttachmentDownloadProgress(p);
-            }
-        };
+        HTTPFileClient.ProgressListener listener = new DownloadProgress(message);
 
         Path path;
         boolean encrypted = attachment.getCoderStatus().isEncrypted();
@@ -397,25 +435,6 @@ public class AttachmentManager implements Runnable {
                 Config.getInstance().getBoolean(Config.SERV_CERT_VALIDATION));
     }
 
-    @Override
-    public void run() {
-        while (true) {
-            Task t;
-            try {
-                // blocking
-                t = mQueue.take();
-            } catch (InterruptedException ex) {
-                LOGGER.log(Level.WARNING, "interrupted while waiting ", ex);
-                return;
-            }
-            if (t instanceof Task.UploadTask) {
-                this.uploadAsync(((Task.UploadTask) t).message);
-            } else if (t instanceof Task.DownloadTask) {
-                this.downloadAsync(((Task.DownloadTask) t).message);
-            }
-        }
-    }
-
     /**
      * Create a new attachment for a given file denoted by its path.
      */
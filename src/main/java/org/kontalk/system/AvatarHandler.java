@@ -46,13 +46,20 @@ public final class AvatarHandler {
     private final Client mClient;
     private final Model mModel;
 
+    private volatile boolean mEnabled = true;
+
     AvatarHandler(Client client, Model model) {
         mClient = client;
         mModel = model;
     }
 
+    /** Disable requesting and processing of contact avatars. */
+    void disable() {
+        mEnabled = false;
+    }
+
     public void onNotify(JID jid, String id) {
-        if (!Config.getInstance().getBoolean(Config.NET_REQUEST_AVATARS))
+        if (!mEnabled || !Config.getInstance().getBoolean(Config.NET_REQUEST_AVATARS))
             // disabled by user
             return;
 
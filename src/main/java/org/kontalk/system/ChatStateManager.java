@@ -18,36 +18,57 @@
 
 package org.kontalk.system;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.jivesoftware.smackx.chatstates.ChatState;
 import org.kontalk.client.Client;
 import org.kontalk.model.Contact;
 import org.kontalk.model.chat.Chat;
+import org.kontalk.model.chat.GroupChat;
 import org.kontalk.model.chat.SingleChat;
 import org.kontalk.persistence.Config;
 
 /**
- * Manager handling own chat status for all chats.
+ * Manager handling own chat status for all chats and incoming chat states.
+ *
+ * Own 'composing' states are send at most once per interval for each chat.
+ * Keystrokes only update a timestamp, the switch to 'inactive' is checked by
+ * one scheduled task per chat.
+ *
+ * Incoming states for group chats are collected for a short time and set
+ * together.
+ *
+ * Thread-safe.
+ *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
 final class ChatStateManager {
 
-    private static final int COMPOSING_TO_PAUSED = 15; // seconds
+    private static final long COMPOSING_TO_PAUSED = TimeUnit.SECONDS.toMillis(15);
+    /** Minimum time between two sent 'composing' states for one chat. */
+    private static final long COMPOSING_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    /** Time to collect incoming group chat states. */
+    private static final long INCOMING_DELAY = 250; // milliseconds
 
     private final Client mClient;
+    // guarded by this
     private final Map<Chat, MyChatState> mChatStateCache = new WeakHashMap<>();
-    private final Timer mTimer = new Timer("Chat State Timer", true);
+    // group chat -> (contact -> latest state)
+    private final Map<GroupChat<?>, Map<Contact, ChatState>> mIncoming = new LinkedHashMap<>();
+    private boolean mIncomingScheduled = false;
 
     public ChatStateManager(Client client) {
         mClient = client;
     }
 
-    void handleOwnChatStateEvent(Chat chat, ChatState state) {
+    synchronized void handleOwnChatStateEvent(Chat chat, ChatState state) {
         if (!mChatStateCache.containsKey(chat)) {
             if (state == ChatState.gone)
                 // weare and stay at the default state
@@ -58,39 +79,114 @@ final class ChatStateManager {
         mChatStateCache.get(chat).handleState(state);
     }
 
-    void imGone() {
+    synchronized void imGone() {
         mChatStateCache.values().forEach(chatState -> chatState.handleState(ChatState.gone));
     }
 
+    void handleIncoming(Chat chat, Contact contact, ChatState state) {
+        if (!(chat instanceof GroupChat)) {
+            chat.setChatState(contact, state);
+            return;
+        }
+
+        synchronized (this) {
+            GroupChat<?> groupChat = (GroupChat<?>) chat;
+            Map<Contact, ChatState> states = mIncoming.get(groupChat);
+            if (states == null) {
+                states = new HashMap<>();
+                mIncoming.put(groupChat, states);
+            }
+            states.put(contact, state);
+
+            if (mIncomingScheduled)
+                return;
+            mIncomingScheduled = true;
+        }
+
+        Scheduler.getInstance().schedule(Scheduler.Pool.NETWORK,
+                this::applyIncoming,
+                INCOMING_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void applyIncoming() {
+        List<Map.Entry<GroupChat<?>, Map<Contact, ChatState>>> incoming;
+        synchronized (this) {
+            incoming = new ArrayList<>(mIncoming.entrySet());
+            mIncoming.clear();
+            mIncomingScheduled = false;
+        }
+
+        for (Map.Entry<GroupChat<?>, Map<Contact, ChatState>> e : incoming)
+            e.getKey().setChatStates(e.getValue());
+    }
+
+    // all methods must be called while holding the manager lock
     private class MyChatState {
         private final Chat mChat;
         private ChatState mCurrentState;
-        private TimerTask mScheduledStateSet = null;
+        // time of last 'composing' event
+        private long mLastComposing = 0;
+        // time 'composing' was sent last
+        private long mLastComposingSent = 0;
+        private ScheduledFuture<?> mTimeout = null;
+        private ScheduledFuture<?> mDeferred = null;
 
         private MyChatState(Chat chat) {
             mChat = chat;
         }
 
         private void handleState(ChatState state) {
-            if (mScheduledStateSet != null)
+            if (state == ChatState.composing) {
+                mLastComposing = System.currentTimeMillis();
+                if (mTimeout == null)
+                    this.scheduleTimeout(COMPOSING_TO_PAUSED);
+            } else {
                 // whatever we wanted to set next, thats obsolete now
-                mScheduledStateSet.cancel();
+                this.cancel();
+            }
 
             if (state != mCurrentState)
                 this.setNewState(state);
+        }
 
-            if (state == ChatState.composing) {
-                mScheduledStateSet = new TimerTask() {
-                    @Override
-                    public void run() {
-                        // NOTE: using 'inactive' instead of 'paused' here as
-                        // 'inactive' isn't send at all
-                        MyChatState.this.handleState(ChatState.inactive);
-                    }
-                };
-                mTimer.schedule(mScheduledStateSet,
-                        TimeUnit.SECONDS.toMillis(COMPOSING_TO_PAUSED));
+        private void scheduleTimeout(long delay) {
+            mTimeout = Scheduler.getInstance().schedule(Scheduler.Pool.NETWORK,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (ChatStateManager.this) {
+                                MyChatState.this.onTimeout();
+                            }
+                        }
+                    },
+                    delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void onTimeout() {
+            if (mTimeout == null)
+                // cancelled, but already running
+                return;
+
+            long elapsed = System.currentTimeMillis() - mLastComposing;
+            if (elapsed < COMPOSING_TO_PAUSED) {
+                // still typing
+                this.scheduleTimeout(COMPOSING_TO_PAUSED - elapsed);
+                return;
             }
+
+            mTimeout = null;
+            // NOTE: using 'inactive' instead of 'paused' here as
+            // 'inactive' isn't send at all
+            this.handleState(ChatState.inactive);
+        }
+
+        private void cancel() {
+            if (mTimeout != null)
+                mTimeout.cancel(false);
+            mTimeout = null;
+            if (mDeferred != null)
+                mDeferred.cancel(false);
+            mDeferred = null;
         }
 
         private void setNewState(ChatState state) {
@@ -102,6 +198,38 @@ final class ChatStateManager {
                 // 'active' is send inside a message
                 return;
 
+            if (state == ChatState.composing) {
+                long wait = mLastComposingSent + COMPOSING_INTERVAL - System.currentTimeMillis();
+                if (wait > 0) {
+                    // rate limit, send later if still composing
+                    if (mDeferred == null)
+                        this.scheduleDeferred(wait);
+                    return;
+                }
+                mLastComposingSent = System.currentTimeMillis();
+            }
+
+            this.send(state);
+        }
+
+        private void scheduleDeferred(long delay) {
+            mDeferred = Scheduler.getInstance().schedule(Scheduler.Pool.NETWORK,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (ChatStateManager.this) {
+                                if (mDeferred == null || mCurrentState != ChatState.composing)
+                                    return;
+                                mDeferred = null;
+                                mLastComposingSent = System.currentTimeMillis();
+                                MyChatState.this.send(ChatState.composing);
+                            }
+                        }
+                    },
+                    delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void send(ChatState state) {
             Contact contact = ((SingleChat) mChat).getMember().getContact();
             if (contact.isMe() || contact.isBlocked() || contact.isDeleted())
                 return;
@@ -30,8 +30,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Observable;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -55,6 +53,7 @@ import org.kontalk.model.Contact;
 import org.kontalk.model.Model;
 import org.kontalk.model.chat.Chat;
 import org.kontalk.model.chat.GroupChat;
+import org.kontalk.model.chat.GroupMetaData;
 import org.kontalk.model.chat.Member;
 import org.kontalk.model.chat.ProtoMember;
 import org.kontalk.model.chat.SingleChat;
@@ -91,9 +90,6 @@ public final class Control {
         ERROR
     }
 
-    /** Interval between retry connection attempts after failure. */
-    private static final int RETRY_TIMER_INTERVAL = 20; // seconds
-
     private final ViewControl mViewControl;
 
     private final Database mDB;
@@ -104,9 +100,11 @@ public final class Control {
     private final RosterHandler mRosterHandler;
     private final AvatarHandler mAvatarHandler;
     private final GroupControl mGroupControl;
+    private final ReconnectManager mReconnectManager;
+    private final Diagnostics mDiagnostics;
 
     private boolean mShuttingDown = false;
-    private Timer mRetryTimer = null;
+    private volatile HeadlessEngine mHeadless = null;
 
     public Control(Path appDir) throws KonException {
         mViewControl = new ViewControl();
@@ -122,17 +120,25 @@ public final class Control {
 
         mModel = Model.setup(mDB, appDir);
 
+        mDiagnostics = new Diagnostics(appDir);
+        mDiagnostics.start(mDB);
+
         mClient = Client.create(this, appDir);
         mChatStateManager = new ChatStateManager(mClient);
         mAttachmentManager = AttachmentManager.create(this, mClient, appDir);
         mRosterHandler = new RosterHandler(this, mClient, mModel);
         mAvatarHandler = new AvatarHandler(mClient, mModel);
         mGroupControl = new GroupControl(this, mModel);
+        mReconnectManager = new ReconnectManager(this);
     }
 
     public void launch(boolean ui) {
+        this.launch(ui, 0);
+    }
+
+    private void launch(boolean ui, int messageLimit) {
 
-        mModel.load();
+        mModel.load(messageLimit);
 
         if (ui) {
             View view = View.create(mViewControl, mModel).orElse(null);
@@ -154,6 +160,18 @@ public final class Control {
             mViewControl.connect();
     }
 
+    /**
+     * Launch without user interface, new incoming messages are passed to the
+     * message handler. Avatars and previews are not processed.
+     */
+    public void launchHeadless(MessageHandler handler, int workers) {
+        mHeadless = new HeadlessEngine(handler, workers);
+        mAvatarHandler.disable();
+
+        // don't load the whole history, only the working set
+        this.launch(false, HeadlessEngine.WORKING_SET);
+    }
+
     public void shutDown(boolean exit) {
         if (mShuttingDown)
             // we were already here
@@ -167,7 +185,14 @@ public final class Control {
         mViewControl.changed(new ViewEvent.StatusChange(Status.SHUTTING_DOWN,
                 EnumSet.noneOf(FeatureDiscovery.Feature.class)));
 
+        if (mHeadless != null)
+            mHeadless.shutDown();
+
+        // background tasks may still use the database
+        Scheduler.getInstance().shutDown();
+
         mModel.onShutDown();
+        mDiagnostics.stop();
         try {
             mDB.close();
         } catch (RuntimeException ex) {
@@ -194,47 +219,75 @@ public final class Control {
         return mViewControl;
     }
 
+    // visible for tests
+    Client getClient() {
+        return mClient;
+    }
+
     /* events from network client */
 
     public void onStatusChange(Status status, EnumSet<FeatureDiscovery.Feature> features) {
+        this.onStatusChange(status, features, false);
+    }
+
+    /**
+     * @param resumed connection was re-established by resuming the previous
+     * stream, the session state is still valid
+     */
+    public void onStatusChange(Status status, EnumSet<FeatureDiscovery.Feature> features,
+            boolean resumed) {
         mViewControl.changed(new ViewEvent.StatusChange(status, features));
 
+        mReconnectManager.onStatusChange(status);
+
         Config config = Config.getInstance();
         if (status == Status.CONNECTED) {
-            String[] strings = config.getStringArray(Config.NET_STATUS_LIST);
-            mClient.sendUserPresence(strings.length > 0 ? strings[0] : "");
-            // send all pending messages
-            for (Chat chat: mModel.chats())
-                chat.getMessages().getPending().forEach(this::sendMessage);
+            if (!resumed) {
+                // new session, presences of all contacts are send again
+                this.resetOnlineStatus();
 
-            // send public key requests for Kontalk contacts with missing key
-            for (Contact contact : mModel.contacts().getAll(false, false))
-                this.maySendKeyRequest(contact);
+                String[] strings = config.getStringArray(Config.NET_STATUS_LIST);
+                mClient.sendUserPresence(strings.length > 0 ? strings[0] : "");
+            }
+
+            // send pending messages that were created while offline, stream
+            // management sends messages not acknowledged by the server again
+            for (Chat chat: mModel.chats())
+                chat.getMessages().getPending().stream()
+                        .filter(m -> !mClient.isUnacknowledged(m.getXMPPID()))
+                        .forEach(this::sendMessage);
 
-            // TODO check current user avatar on server and upload if necessary
+            if (!resumed) {
+                // send public key requests for Kontalk contacts with missing key
+                for (Contact contact : mModel.contacts().getAll(false, false))
+                    this.maySendKeyRequest(contact);
 
-        } else if (status == Status.DISCONNECTED || status == Status.FAILED) {
-            for (Contact contact : mModel.contacts().getAll(false, false))
-                contact.setOnlineStatus(Contact.Online.UNKNOWN);
+                // TODO check current user avatar on server and upload if necessary
+            }
+        } else if (status == Status.DISCONNECTED ||
+                // a resumed stream does not send presences again
+                (status == Status.FAILED && !mClient.canResume())) {
+            this.resetOnlineStatus();
         }
+    }
 
-        if ((status == Status.FAILED || status == Status.ERROR)
-                    && config.getBoolean(Config.NET_RETRY_CONNECT)) {
-            mRetryTimer = new Timer("Retry Timer", true);
-            TimerTask task = new TimerTask() {
-                private int mCountDown = RETRY_TIMER_INTERVAL;
+    private void resetOnlineStatus() {
+        for (Contact contact : mModel.contacts().getAll(false, false))
+            contact.setOnlineStatus(Contact.Online.UNKNOWN);
+    }
 
-                @Override
-                public void run() {
-                    if (mCountDown > 0) {
-                        mViewControl.changed(new ViewEvent.RetryTimerMessage(mCountDown--));
-                    } else {
-                        mViewControl.connect();
-                    }
-                }
-            };
-            mRetryTimer.schedule(task, 0, 1000);
-        }
+    void onRetryCountdown(int seconds) {
+        mViewControl.changed(new ViewEvent.RetryTimerMessage(seconds));
+    }
+
+    /** Retry after connection failure, resume the previous stream if possible. */
+    void reconnect() {
+        if (mClient.resume())
+            return;
+
+        PersonalKey key = mViewControl.keyOrNull(new char[0]);
+        if (key != null)
+            mClient.connect(key);
     }
 
     public void onAuthenticated(JID jid) {
@@ -245,6 +298,12 @@ public final class Control {
         mViewControl.changed(new ViewEvent.Exception(ex));
     }
 
+    void onTransferProgress(KonMessage message, long transferred, long total,
+            long bytesPerSecond, long etaSeconds) {
+        mViewControl.changed(new ViewEvent.TransferProgress(message, transferred, total,
+                bytesPerSecond, etaSeconds));
+    }
+
     // TODO unused
     public void onEncryptionErrors(KonMessage message, Contact contact) {
         EnumSet<Coder.Error> errors = message.getCoderStatus().getErrors();
@@ -308,6 +367,11 @@ public final class Control {
 
         this.processContent(newMessage);
 
+        if (mHeadless != null) {
+            mHeadless.dispatch(newMessage);
+            return;
+        }
+
         mViewControl.changed(new ViewEvent.NewMessage(newMessage));
     }
 
@@ -336,8 +400,10 @@ public final class Control {
 
     /**
      * Inform model (and view) about a received chat state notification.
+     * The chat is a group chat if the notification includes group data.
      */
     public void onChatStateNotification(MessageIDs ids,
+            Optional<GroupMetaData> groupData,
             Optional<Date> serverDate,
             ChatState chatState) {
         if (serverDate.isPresent()) {
@@ -352,13 +418,16 @@ public final class Control {
             LOGGER.info("can't find contact with jid: "+ids.jid);
             return;
         }
-        // NOTE: assume chat states are only send for single chats
-        SingleChat chat = mModel.chats().get(contact, ids.xmppThreadID).orElse(null);
+        Chat chat = groupData.isPresent() ?
+                mModel.chats().get(groupData.get())
+                        .filter(groupChat -> groupChat.getAllContacts().contains(contact))
+                        .orElse(null) :
+                mModel.chats().get(contact, ids.xmppThreadID).orElse(null);
         if (chat == null)
             // not that important
             return;
 
-        chat.setChatState(contact, chatState);
+        mChatStateManager.handleIncoming(chat, contact, chatState);
     }
 
     public void onPGPKey(JID jid, byte[] rawKey) {
@@ -544,6 +613,11 @@ public final class Control {
         return this.createContact(jid, name, XMPPUtils.isKontalkJID(jid));
     }
 
+    /** Create contact for an entry already in the roster. Nothing is send. */
+    Optional<Contact> createRosterContact(JID jid, String name) {
+        return this.newContact(jid, name, XMPPUtils.isKontalkJID(jid));
+    }
+
     void sendPresenceSubscription(JID jid, Client.PresenceCommand command) {
         mClient.sendPresenceSubscription(jid, command);
     }
@@ -566,6 +640,19 @@ public final class Control {
             return Optional.empty();
         }
 
+        Contact newContact = this.newContact(jid, name, encrypted).orElse(null);
+        if (newContact == null)
+            // TODO tell view
+            return Optional.empty();
+
+        this.addToRoster(newContact);
+
+        this.maySendKeyRequest(newContact);
+
+        return Optional.of(newContact);
+    }
+
+    private Optional<Contact> newContact(JID jid, String name, boolean encrypted) {
         if (name.isEmpty() && !jid.isHash()){
             name = jid.local();
         }
@@ -573,16 +660,10 @@ public final class Control {
         Contact newContact = mModel.contacts().create(jid, name).orElse(null);
         if (newContact == null) {
             LOGGER.warning("can't create new contact");
-            // TODO tell view
             return Optional.empty();
         }
 
         newContact.setEncrypted(encrypted);
-
-        this.addToRoster(newContact);
-
-        this.maySendKeyRequest(newContact);
-
         return Optional.of(newContact);
     }
 
@@ -619,7 +700,7 @@ public final class Control {
             this.onSecurityErrors(message);
         }
 
-        if (message.getContent().getPreview().isPresent()) {
+        if (message.getContent().getPreview().isPresent() && mHeadless == null) {
             mAttachmentManager.savePreview(message);
         }
 
@@ -647,16 +728,12 @@ public final class Control {
                 !contactName.isEmpty() ?
                 contactName :
                 contact.getJID().local();
-        boolean succ = mClient.addToRoster(contact.getJID(), rosterName);
-        if (!succ)
-            LOGGER.warning("can't add contact to roster: "+contact);
+        // result is handled by roster handler
+        mClient.addToRoster(contact.getJID(), rosterName);
     }
 
     private void removeFromRoster(JID jid) {
-        boolean succ = mClient.removeFromRoster(jid);
-        if (!succ) {
-            LOGGER.warning("could not remove contact from roster");
-        }
+        mClient.removeFromRoster(jid);
     }
 
     private Optional<OutMessage> findMessage(MessageIDs ids) {
@@ -698,8 +775,7 @@ public final class Control {
         }
 
         public void connect(char[] password) {
-            if (mRetryTimer != null)
-                mRetryTimer.cancel();
+            mReconnectManager.reset();
 
             PersonalKey key = this.keyOrNull(password);
             if (key == null)
@@ -709,9 +785,7 @@ public final class Control {
         }
 
         public void disconnect() {
-            // this should not be necessary
-            if (mRetryTimer != null)
-                mRetryTimer.cancel();
+            mReconnectManager.reset();
 
             mChatStateManager.imGone();
             mClient.disconnect();
@@ -786,7 +860,6 @@ public final class Control {
 
         public void changeName(Contact contact, String name) {
             if (Config.getInstance().getBoolean(Config.NET_SEND_ROSTER_NAME))
-                // TODO care about success?
                 mClient.updateRosterEntry(contact.getJID(), name);
 
             contact.setName(name);
@@ -971,6 +1044,9 @@ public final class Control {
         }
 
         void changed(ViewEvent event) {
+            if (mHeadless != null)
+                // nobody listening
+                return;
             this.setChanged();
             this.notifyObservers(event);
         }
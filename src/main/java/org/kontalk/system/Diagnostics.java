@@ -0,0 +1,195 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.system;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import org.kontalk.misc.Metrics;
+import org.kontalk.persistence.Config;
+import org.kontalk.persistence.Database;
+
+/**
+ * Exposes the runtime metrics: as JMX bean and as periodic dump to a file
+ * in the application directory (if enabled in config).
+ * Also registers gauges for components without own metrics.
+ */
+final class Diagnostics {
+    private static final Logger LOGGER = Logger.getLogger(Diagnostics.class.getName());
+
+    private static final String MBEAN_NAME = "org.kontalk:type=Metrics";
+    private static final String DUMP_FILENAME = "metrics.log";
+    private static final long DUMP_INTERVAL = 60; // seconds
+    // rotated once when exceeded
+    private static final long MAX_DUMP_SIZE = 5 * 1024 * 1024;
+
+    private final Path mDumpFile;
+
+    private ObjectName mMBeanName = null;
+    private ScheduledFuture<?> mDumpTask = null;
+
+    Diagnostics(Path appDir) {
+        mDumpFile = appDir.resolve(DUMP_FILENAME);
+    }
+
+    void start(Database db) {
+        Scheduler scheduler = Scheduler.getInstance();
+        for (Scheduler.Pool pool : Scheduler.Pool.values()) {
+            String name = "scheduler." + pool.name().toLowerCase();
+            Metrics.gauge(name + ".active", () -> scheduler.getStats(pool).active);
+            Metrics.gauge(name + ".queued", () -> scheduler.getStats(pool).queued);
+            Metrics.gauge(name + ".completed", () -> scheduler.getStats(pool).completed);
+            Metrics.gauge(name + ".rejected", () -> scheduler.getStats(pool).rejected);
+        }
+        Metrics.gauge("db.bytes_written", db::getBytesWritten);
+        Runtime runtime = Runtime.getRuntime();
+        Metrics.gauge("jvm.heap.used", () -> runtime.totalMemory() - runtime.freeMemory());
+        Metrics.gauge("jvm.heap.max", runtime::maxMemory);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            server.registerMBean(new MetricsBean(), name);
+            mMBeanName = name;
+        } catch (JMException ex) {
+            LOGGER.log(Level.WARNING, "can't register JMX bean", ex);
+        }
+
+        mDumpTask = scheduler.scheduleAtFixedRate(Scheduler.Pool.DISK,
+                () -> {
+                    if (Config.getInstance().getBoolean(Config.MAIN_METRICS_DUMP))
+                        this.dump();
+                },
+                DUMP_INTERVAL, DUMP_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    void stop() {
+        if (mDumpTask != null)
+            mDumpTask.cancel(false);
+
+        if (mMBeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mMBeanName);
+            } catch (JMException ex) {
+                LOGGER.log(Level.WARNING, "can't unregister JMX bean", ex);
+            }
+        }
+
+        LOGGER.config("metrics: "+Metrics.snapshot());
+        if (Config.getInstance().getBoolean(Config.MAIN_METRICS_DUMP))
+            this.dump();
+    }
+
+    private synchronized void dump() {
+        List<String> lines = new ArrayList<>();
+        lines.add("# " + new Date());
+        for (Map.Entry<String, Number> e : Metrics.snapshot().entrySet())
+            lines.add(e.getKey() + " " + e.getValue());
+        lines.add("");
+
+        try {
+            if (Files.exists(mDumpFile) && Files.size(mDumpFile) > MAX_DUMP_SIZE)
+                Files.move(mDumpFile, mDumpFile.resolveSibling(DUMP_FILENAME + ".1"),
+                        StandardCopyOption.REPLACE_EXISTING);
+            Files.write(mDumpFile, lines, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "can't write metrics file", ex);
+        }
+    }
+
+    /** Read-only bean with one attribute for each metric value. */
+    private static final class MetricsBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = Metrics.snapshot().get(attribute);
+            if (value == null)
+                throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            SortedMap<String, Number> snapshot = Metrics.snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Number value = snapshot.get(attribute);
+                if (value != null)
+                    list.add(new Attribute(attribute, value));
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature)
+                throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            // metrics are created lazily, info changes over time
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (Map.Entry<String, Number> e : Metrics.snapshot().entrySet()) {
+                infos.add(new MBeanAttributeInfo(e.getKey(),
+                        e.getValue().getClass().getName(),
+                        e.getKey(), true, false, false));
+            }
+            return new MBeanInfo(MetricsBean.class.getName(),
+                    "Kontalk runtime metrics",
+                    infos.toArray(new MBeanAttributeInfo[0]),
+                    null, null, null);
+        }
+    }
+}
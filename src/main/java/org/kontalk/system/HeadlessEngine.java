@@ -0,0 +1,110 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.system;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.kontalk.model.chat.Chat;
+import org.kontalk.model.message.InMessage;
+
+/**
+ * Delivers incoming messages to a message handler when running without
+ * user interface.
+ *
+ * Messages are distributed over a configurable number of worker lanes by
+ * chat, so messages of one chat keep their order. Lane queues are bounded:
+ * if the handler is too slow, the receiving thread waits, which slows down
+ * reading from the server.
+ *
+ * After handling, older messages of the chat are dropped from memory (not
+ * from the database) to keep the working set bounded.
+ */
+final class HeadlessEngine {
+    private static final Logger LOGGER = Logger.getLogger(HeadlessEngine.class.getName());
+
+    private static final int QUEUE_SIZE = 1000;
+    /** Number of newest messages kept in memory for each chat. */
+    static final int WORKING_SET = 50;
+
+    private final MessageHandler mHandler;
+    private final ThreadPoolExecutor[] mLanes;
+
+    HeadlessEngine(MessageHandler handler, int workers) {
+        mHandler = handler;
+        mLanes = new ThreadPoolExecutor[Math.max(workers, 1)];
+        for (int i = 0; i < mLanes.length; i++) {
+            String name = "Message Handler " + i;
+            mLanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_SIZE),
+                    r -> new Thread(r, name),
+                    new BlockingHandler());
+        }
+        LOGGER.info("handler: "+handler.getClass().getName()+", workers: "+mLanes.length);
+    }
+
+    void dispatch(InMessage message) {
+        Chat chat = message.getChat();
+        mLanes[Math.floorMod(chat.getID(), mLanes.length)].execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mHandler.onMessage(message);
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "handler failed, message: "+message, ex);
+                }
+                chat.getMessages().evict(WORKING_SET);
+            }
+        });
+    }
+
+    void shutDown() {
+        for (ThreadPoolExecutor lane : mLanes)
+            lane.shutdown();
+        try {
+            for (ThreadPoolExecutor lane : mLanes)
+                if (!lane.awaitTermination(3, TimeUnit.SECONDS))
+                    LOGGER.warning("handler did not finish");
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.WARNING, "interrupted while waiting", ex);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Wait for space in the lane queue instead of rejecting. */
+    private static final class BlockingHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                LOGGER.warning("shut down, message not handled");
+                return;
+            }
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(ex);
+            }
+        }
+    }
+}
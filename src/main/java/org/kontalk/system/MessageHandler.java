@@ -0,0 +1,39 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.system;
+
+import org.kontalk.model.message.InMessage;
+
+/**
+ * Handler for new incoming messages when running without user interface,
+ * e.g. for bots or archiving.
+ *
+ * Implementations need a public no-argument constructor to be loaded from
+ * the command line.
+ */
+public interface MessageHandler {
+
+    /**
+     * Handle a new incoming message, already saved and decrypted if
+     * possible (check the coder status for errors).
+     *
+     * Called on worker threads; messages of one chat are handled in order,
+     * messages of different chats concurrently.
+     */
+    void onMessage(InMessage message);
+}
@@ -0,0 +1,123 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.system;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.kontalk.persistence.Config;
+
+/**
+ * Retry connecting after connection failures.
+ *
+ * The delay between attempts grows exponentially up to a maximum and is
+ * randomized, so that many clients losing the connection at the same time do
+ * not reconnect at the same time. The remaining seconds are shown in the view.
+ */
+final class ReconnectManager {
+    private static final Logger LOGGER = Logger.getLogger(ReconnectManager.class.getName());
+
+    private static final int BASE_DELAY = 5; // seconds
+    private static final int MAX_DELAY = 300; // seconds
+
+    private final Control mControl;
+    private final Random mRandom = new Random();
+
+    // guarded by this
+    private int mAttempts = 0;
+    private ScheduledFuture<?> mCountdown = null;
+    private AtomicInteger mRemaining = null;
+
+    ReconnectManager(Control control) {
+        mControl = control;
+    }
+
+    synchronized void onStatusChange(Control.Status status) {
+        switch (status) {
+            case CONNECTED:
+                this.reset();
+                break;
+            case FAILED:
+            case ERROR:
+                if (Config.getInstance().getBoolean(Config.NET_RETRY_CONNECT))
+                    this.schedule();
+                break;
+        }
+    }
+
+    /** Stop a scheduled attempt. */
+    synchronized void cancel() {
+        if (mCountdown != null)
+            mCountdown.cancel(false);
+        mCountdown = null;
+        mRemaining = null;
+    }
+
+    /** Stop a scheduled attempt and start with the shortest delay again. */
+    synchronized void reset() {
+        this.cancel();
+        mAttempts = 0;
+    }
+
+    private void schedule() {
+        this.cancel();
+
+        int delay = this.nextDelay();
+        LOGGER.info("retry in "+delay+" seconds, attempt "+mAttempts);
+
+        AtomicInteger remaining = new AtomicInteger(delay);
+        mRemaining = remaining;
+        mCountdown = Scheduler.getInstance().scheduleAtFixedRate(Scheduler.Pool.NETWORK,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        ReconnectManager.this.tick(remaining);
+                    }
+                },
+                0, 1, TimeUnit.SECONDS);
+    }
+
+    private void tick(AtomicInteger remaining) {
+        synchronized (this) {
+            if (remaining != mRemaining)
+                // cancelled, but already handed over
+                return;
+
+            int seconds = remaining.getAndDecrement();
+            if (seconds > 0) {
+                mControl.onRetryCountdown(seconds);
+                return;
+            }
+            this.cancel();
+        }
+
+        mControl.reconnect();
+    }
+
+    /** Delay in seconds: "equal jitter", half fixed and half random. */
+    private int nextDelay() {
+        int exp = Math.min(mAttempts++, 16);
+        int delay = (int) Math.min((long) BASE_DELAY << exp, MAX_DELAY);
+        int half = delay / 2;
+        return delay - half + mRandom.nextInt(half + 1);
+    }
+}
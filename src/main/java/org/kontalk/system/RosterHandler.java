@@ -18,11 +18,13 @@
 
 package org.kontalk.system;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.packet.XMPPError;
@@ -66,15 +68,64 @@ public final class RosterHandler {
         mModel = model;
     }
 
+    /**
+     * Synchronize contacts with the complete roster. Only the differences
+     * are applied, new contacts are created in one model transaction.
+     */
     public void onLoaded(List<ClientUtils.KonRosterEntry> entries) {
-        for (ClientUtils.KonRosterEntry entry: entries)
-            this.onEntryAdded(entry);
+        Map<JID, ClientUtils.KonRosterEntry> rosterMap = new HashMap<>();
+        for (ClientUtils.KonRosterEntry entry : entries)
+            rosterMap.put(entry.jid, entry);
+
+        List<ClientUtils.KonRosterEntry> added = new ArrayList<>();
+        List<ClientUtils.KonRosterEntry> changed = new ArrayList<>();
+        List<Contact> existing = new ArrayList<>();
+        for (ClientUtils.KonRosterEntry entry : rosterMap.values()) {
+            Contact contact = mModel.contacts().get(entry.jid).orElse(null);
+            if (contact == null) {
+                added.add(entry);
+            } else {
+                existing.add(contact);
+                if (differs(contact, entry))
+                    changed.add(entry);
+            }
+        }
 
-        // check for deleted entries
-        List<JID> rosterJIDs = entries.stream().map(e -> e.jid).collect(Collectors.toList());
+        List<JID> removed = new ArrayList<>();
         for (Contact contact : mModel.contacts().getAll(false, true))
-            if (!rosterJIDs.contains(contact.getJID()))
-                this.onEntryDeleted(contact.getJID());
+            if (!rosterMap.containsKey(contact.getJID()))
+                removed.add(contact.getJID());
+
+        LOGGER.info("roster entries: "+rosterMap.size()+", added: "+added.size()
+                +", changed: "+changed.size()+", removed: "+removed.size());
+
+        // only database writes in the batch, nothing is send while the
+        // database is locked
+        Map<Contact, ClientUtils.KonRosterEntry> newContacts = new HashMap<>();
+        if (!added.isEmpty()) {
+            mModel.contacts().batch(new Runnable() {
+                @Override
+                public void run() {
+                    for (ClientUtils.KonRosterEntry entry : added) {
+                        Contact contact = mControl.createRosterContact(entry.jid,
+                                rosterName(entry)).orElse(null);
+                        if (contact != null)
+                            newContacts.put(contact, entry);
+                    }
+                }
+            });
+        }
+
+        for (Map.Entry<Contact, ClientUtils.KonRosterEntry> e : newContacts.entrySet())
+            this.onContactAdded(e.getKey(), e.getValue());
+        for (ClientUtils.KonRosterEntry entry : changed)
+            this.updateContact(entry);
+        for (JID jid : removed)
+            this.onEntryDeleted(jid);
+
+        // requests for unchanged contacts too, they may be outdated
+        for (Contact contact : existing)
+            this.sendRequests(contact);
     }
 
     public void onEntryAdded(ClientUtils.KonRosterEntry entry) {
@@ -85,18 +136,17 @@ public final class RosterHandler {
 
         LOGGER.info("adding contact from roster, jid: "+entry.jid);
 
-        String name = entry.name.equals(entry.jid.local()) && entry.jid.isHash() ?
-                // this must be the hash string, don't use it as name
-                "" :
-                entry.name;
-
-        Contact newContact = mControl.createContact(entry.jid, name).orElse(null);
+        Contact newContact = mControl.createContact(entry.jid, rosterName(entry)).orElse(null);
         if (newContact == null)
             return;
 
-        newContact.setSubscriptionStatus(entry.subscription);
+        this.onContactAdded(newContact, entry);
+    }
 
-        mControl.maySendKeyRequest(newContact);
+    private void onContactAdded(Contact contact, ClientUtils.KonRosterEntry entry) {
+        contact.setSubscriptionStatus(entry.subscription);
+
+        mControl.maySendKeyRequest(contact);
 
         if (entry.subscription == Contact.Subscription.UNSUBSCRIBED)
             mControl.sendPresenceSubscription(entry.jid, Client.PresenceCommand.REQUEST);
@@ -115,29 +165,63 @@ public final class RosterHandler {
         mControl.getViewControl().changed(new ViewEvent.ContactDeleted(contact));
     }
 
-    // NOTE: also called for every contact in roster on every (re-)connect
     public void onEntryUpdate(ClientUtils.KonRosterEntry entry) {
+        Contact contact = this.updateContact(entry);
+        if (contact != null)
+            this.sendRequests(contact);
+    }
+
+    private Contact updateContact(ClientUtils.KonRosterEntry entry) {
         Contact contact = mModel.contacts().get(entry.jid).orElse(null);
         if (contact == null) {
             LOGGER.info("can't find contact with jid: "+entry.jid);
-            return;
+            return null;
         }
         // subscription may have changed
         contact.setSubscriptionStatus(entry.subscription);
 
-        // maybe subscribed now
-        mControl.maySendKeyRequest(contact);
-
         // name may have changed
-        if (contact.getName().isEmpty() && !entry.name.equals(entry.jid.local()))
+        if (isNewName(contact, entry))
             contact.setName(entry.name);
 
+        return contact;
+    }
+
+    private void sendRequests(Contact contact) {
+        // maybe subscribed now
+        mControl.maySendKeyRequest(contact);
+
         if (contact.getSubScription() == Subscription.SUBSCRIBED &&
                 (contact.getOnline() == Contact.Online.UNKNOWN ||
                         contact.getOnline() == Contact.Online.NO))
             mClient.sendLastActivityRequest(contact.getJID());
     }
 
+    private static String rosterName(ClientUtils.KonRosterEntry entry) {
+        return entry.name.equals(entry.jid.local()) && entry.jid.isHash() ?
+                // this must be the hash string, don't use it as name
+                "" :
+                entry.name;
+    }
+
+    private static boolean differs(Contact contact, ClientUtils.KonRosterEntry entry) {
+        return contact.getSubScription() != entry.subscription ||
+                isNewName(contact, entry);
+    }
+
+    private static boolean isNewName(Contact contact, ClientUtils.KonRosterEntry entry) {
+        return contact.getName().isEmpty() && !entry.name.equals(entry.jid.local());
+    }
+
+    public void onRosterCommandResult(Client.RosterCommand command, JID jid, boolean success) {
+        if (success) {
+            LOGGER.config("roster "+command+" done, jid: "+jid);
+            return;
+        }
+
+        LOGGER.warning("roster "+command+" failed, jid: "+jid);
+    }
+
     public void onSubscriptionRequest(JID jid, byte[] rawKey) {
         Contact contact = mModel.contacts().get(jid).orElse(null);
         if (contact == null)
@@ -190,23 +274,28 @@ public final class RosterHandler {
         }
     }
 
+    /**
+     * Check the key of a presence signature, search for it if unknown.
+     * @return true if the signing key was verified: it is the key of the
+     * contact or a found key with the same ID
+     */
     // TODO key IDs can be forged, searching by it is defective by design
-    public void onSignaturePresence(JID jid, String signature) {
+    public boolean onSignaturePresence(JID jid, String signature) {
         Contact contact = mModel.contacts().get(jid).orElse(null);
         if (contact == null) {
             LOGGER.info("can't find contact with jid: "+jid);
-            return;
+            return false;
         }
 
         long keyID = PGPUtils.parseKeyIDFromSignature(signature);
         if (keyID == 0)
-            return;
+            return false;
 
         if (contact.hasKey()) {
             PGPUtils.PGPCoderKey key = Coder.contactkey(contact).orElse(null);
             if (key != null && key.signKey.getKeyID() == keyID)
                 // already have this key
-                return;
+                return true;
         }
 
         String id = Long.toHexString(keyID);
@@ -218,18 +307,19 @@ public final class RosterHandler {
                 break;
         }
         if (foundKey.isEmpty())
-            return;
+            return false;
 
         PGPUtils.PGPCoderKey key = PGPUtils.readPublicKey(foundKey).orElse(null);
         if (key == null)
-            return;
+            return false;
 
         if (key.signKey.getKeyID() != keyID) {
             LOGGER.warning("key ID is not what we were searching for");
-            return;
+            return false;
         }
 
         mControl.getViewControl().changed(new ViewEvent.NewKey(contact, key));
+        return true;
     }
 
     public void onPresenceError(JID jid, XMPPError.Type type, XMPPError.Condition condition) {
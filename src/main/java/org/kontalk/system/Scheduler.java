@@ -0,0 +1,294 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.system;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Central executor for background work.
+ *
+ * Tasks run in named thread pools with a bounded number of threads, one pool
+ * for each kind of work. Tasks submitted directly are dropped (and their
+ * future is cancelled) if too many tasks are waiting in the pool; use this
+ * only for work that can be repeated or skipped. Tasks of serial executors
+ * are never dropped.
+ * Delayed and periodic tasks are handed over to their pool when due and are
+ * never dropped either, callers usually track them with a flag.
+ *
+ * All threads are daemon threads. Shut down with the application.
+ */
+public final class Scheduler {
+    private static final Logger LOGGER = Logger.getLogger(Scheduler.class.getName());
+
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final int SHUTDOWN_TIMEOUT = 3; // seconds
+
+    private static Scheduler INSTANCE = null;
+
+    /** Kinds of background work. */
+    public enum Pool {
+        /** Connection handling and XMPP requests. */
+        NETWORK("Network", 4),
+        /** Long-running file up- and downloads. */
+        TRANSFER("File Transfer", 1),
+        /** De- and encryption, key handling. */
+        CRYPTO("Crypto", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()))),
+        /** File reading/writing and image decoding. */
+        DISK("Disk", 2),
+        /** Preparing data for the view, periodic view updates. */
+        UI("UI Refresh", 1);
+
+        private final String mName;
+        private final int mThreads;
+
+        Pool(String name, int threads) {
+            mName = name;
+            mThreads = threads;
+        }
+    }
+
+    /** Snapshot of the state of one pool. */
+    public static final class Stats {
+        public final int threads;
+        public final int active;
+        public final int queued;
+        public final long completed;
+        public final long rejected;
+
+        private Stats(int threads, int active, int queued, long completed, long rejected) {
+            this.threads = threads;
+            this.active = active;
+            this.queued = queued;
+            this.completed = completed;
+            this.rejected = rejected;
+        }
+
+        @Override
+        public String toString() {
+            return "{threads="+threads+",active="+active+",queued="+queued
+                    +",completed="+completed+",rejected="+rejected+"}";
+        }
+    }
+
+    private final Map<Pool, ThreadPoolExecutor> mPools = new EnumMap<>(Pool.class);
+    private final Map<Pool, AtomicLong> mRejected = new EnumMap<>(Pool.class);
+    private final ScheduledThreadPoolExecutor mTimer;
+
+    private Scheduler() {
+        for (Pool pool : Pool.values()) {
+            AtomicLong rejected = new AtomicLong();
+            mRejected.put(pool, rejected);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    pool.mThreads, pool.mThreads,
+                    0L, TimeUnit.MILLISECONDS,
+                    // unbounded, limit is enforced in submit()
+                    new LinkedBlockingQueue<>(),
+                    threadFactory(pool.mName),
+                    new DropHandler(pool.mName, rejected));
+            mPools.put(pool, executor);
+        }
+
+        mTimer = new ScheduledThreadPoolExecutor(1, threadFactory("Scheduler Timer"),
+                new DropHandler("Timer", new AtomicLong()));
+        // don't keep cancelled tasks in timer queue
+        mTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    public static synchronized Scheduler getInstance() {
+        if (INSTANCE == null)
+            INSTANCE = new Scheduler();
+        return INSTANCE;
+    }
+
+    /**
+     * Run a task in a pool. The returned future can be used for cancelling.
+     * The task is dropped if the queue of the pool is full, the returned
+     * future is then already cancelled.
+     */
+    public Future<?> submit(Pool pool, Runnable task) {
+        FutureTask<?> future = new LoggingTask(task);
+        ThreadPoolExecutor executor = mPools.get(pool);
+        if (executor.getQueue().size() >= QUEUE_CAPACITY) {
+            executor.getRejectedExecutionHandler().rejectedExecution(future, executor);
+            return future;
+        }
+        executor.execute(future);
+        return future;
+    }
+
+    /** Run a task in a pool after a delay. */
+    public ScheduledFuture<?> schedule(Pool pool, Runnable task, long delay, TimeUnit unit) {
+        return mTimer.schedule(() -> this.execute(pool, task), delay, unit);
+    }
+
+    /**
+     * Run a task in a pool periodically until cancelled. Executions can
+     * overlap if a run takes longer than the period.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Pool pool, Runnable task,
+            long initialDelay, long period, TimeUnit unit) {
+        return mTimer.scheduleAtFixedRate(() -> this.execute(pool, task),
+                initialDelay, period, unit);
+    }
+
+    /**
+     * Return an executor that runs tasks one after another in submission
+     * order, using threads of a pool. Tasks are queued without limit and
+     * only dropped after shut down.
+     */
+    public Executor serial(Pool pool) {
+        return new SerialExecutor(mPools.get(pool));
+    }
+
+    public Stats getStats(Pool pool) {
+        ThreadPoolExecutor executor = mPools.get(pool);
+        return new Stats(executor.getPoolSize(),
+                executor.getActiveCount(),
+                executor.getQueue().size(),
+                executor.getCompletedTaskCount(),
+                mRejected.get(pool).get());
+    }
+
+    /** Run a task in a pool without queue limit. */
+    private void execute(Pool pool, Runnable task) {
+        mPools.get(pool).execute(new LoggingTask(task));
+    }
+
+    /** Stop all pools, waiting a short time for running and queued tasks. */
+    void shutDown() {
+        mTimer.shutdownNow();
+        for (Map.Entry<Pool, ThreadPoolExecutor> e : mPools.entrySet()) {
+            LOGGER.config(e.getKey()+": "+this.getStats(e.getKey()));
+            e.getValue().shutdown();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT);
+        for (Map.Entry<Pool, ThreadPoolExecutor> e : mPools.entrySet()) {
+            try {
+                long left = deadline - System.nanoTime();
+                if (!e.getValue().awaitTermination(Math.max(left, 0), TimeUnit.NANOSECONDS)) {
+                    LOGGER.warning("pool not terminated: "+e.getKey());
+                    e.getValue().shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.WARNING, "interrupted while waiting", ex);
+                e.getValue().shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name+" "+count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /** Future that logs exceptions which would be swallowed otherwise. */
+    private static final class LoggingTask extends FutureTask<Object> {
+        LoggingTask(Runnable task) {
+            super(task, null);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            LOGGER.log(Level.WARNING, "task failed", t);
+            super.setException(t);
+        }
+    }
+
+    private static final class DropHandler implements RejectedExecutionHandler {
+        private final String mName;
+        private final AtomicLong mCount;
+
+        DropHandler(String name, AtomicLong count) {
+            mName = name;
+            mCount = count;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            mCount.incrementAndGet();
+            if (r instanceof Future)
+                ((Future<?>) r).cancel(false);
+            if (!executor.isShutdown())
+                LOGGER.warning("queue full, task dropped: "+mName);
+        }
+    }
+
+    /** Runs tasks sequentially on an underlying executor. */
+    private static final class SerialExecutor implements Executor {
+        private final Executor mExecutor;
+        // guarded by this
+        private final Queue<Runnable> mTasks = new ArrayDeque<>();
+        private boolean mRunning = false;
+
+        SerialExecutor(Executor executor) {
+            mExecutor = executor;
+        }
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            mTasks.add(task);
+            if (!mRunning)
+                this.scheduleNext();
+        }
+
+        private synchronized void scheduleNext() {
+            while (true) {
+                Runnable task = mTasks.poll();
+                mRunning = task != null;
+                if (task == null)
+                    return;
+
+                FutureTask<?> next = new LoggingTask(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        this.scheduleNext();
+                    }
+                });
+                mExecutor.execute(next);
+                if (!next.isCancelled())
+                    return;
+                // pool is shut down, drop remaining tasks
+            }
+        }
+    }
+}
@@ -42,6 +42,7 @@ import org.kontalk.client.OutOfBandData;
 import org.kontalk.misc.JID;
 import org.kontalk.model.Contact;
 import org.kontalk.model.chat.GroupChat.KonGroupChat;
+import org.kontalk.model.chat.GroupMetaData;
 import org.kontalk.model.chat.GroupMetaData.KonGroupData;
 import org.kontalk.model.message.MessageContent;
 import org.kontalk.model.message.MessageContent.Attachment;
@@ -177,11 +178,9 @@ public final class ClientUtils {
         // group command
         KonGroupData gid = null;
         GroupCommand groupCommand = null;
-        ExtensionElement groupExt = m.getExtension(GroupExtension.ELEMENT_NAME,
-                GroupExtension.NAMESPACE);
-        if (groupExt instanceof GroupExtension) {
-            GroupExtension group = (GroupExtension) groupExt;
-            gid = new KonGroupData(JID.bare(group.getOwner()), group.getID());
+        GroupExtension group = groupExtensionOrNull(m);
+        if (group != null) {
+            gid = groupData(group);
             groupCommand = ClientUtils.groupExtensionToGroupCommand(
                     group.getType(), group.getMembers(), group.getSubject()).orElse(null);
         }
@@ -193,6 +192,22 @@ public final class ClientUtils {
                 .groupCommand(groupCommand).build();
     }
 
+    /** Group data of the (not encrypted) group extension in a message. */
+    public static Optional<GroupMetaData> parseGroupData(Message m) {
+        GroupExtension group = groupExtensionOrNull(m);
+        return group == null ? Optional.empty() : Optional.of(groupData(group));
+    }
+
+    private static GroupExtension groupExtensionOrNull(Message m) {
+        ExtensionElement groupExt = m.getExtension(GroupExtension.ELEMENT_NAME,
+                GroupExtension.NAMESPACE);
+        return groupExt instanceof GroupExtension ? (GroupExtension) groupExt : null;
+    }
+
+    private static KonGroupData groupData(GroupExtension group) {
+        return new KonGroupData(JID.bare(group.getOwner()), group.getID());
+    }
+
     /* Internal to external */
     public static GroupExtension groupCommandToGroupExtension(KonGroupChat chat,
         GroupCommand groupCommand) {
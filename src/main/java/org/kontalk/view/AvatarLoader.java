@@ -25,19 +25,33 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Future;
 import org.apache.commons.lang.ObjectUtils;
+import org.kontalk.misc.Metrics;
 import org.kontalk.model.Avatar;
 import org.kontalk.model.chat.Chat;
 import org.kontalk.model.Contact;
 import org.kontalk.model.chat.SingleChat;
+import org.kontalk.system.Scheduler;
 import org.kontalk.util.MediaUtils;
 import org.kontalk.util.Tr;
 
 /**
  * Static functions for loading avatar pictures.
+ *
+ * Images can be loaded asynchronously: a plain placeholder is returned
+ * immediately while the image is decoded and scaled in background; listeners
+ * are notified on EDT when images are ready.
+ *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
 final class AvatarLoader {
@@ -46,7 +60,16 @@ final class AvatarLoader {
     private static final Color FALLBACK_COLOR = new Color(220, 220, 220);
     private static final Color GROUP_COLOR = new Color(160, 160, 160);
 
-    private static final Map<Item, AvatarImg> CACHE = new HashMap<>();
+    private static final Map<Item, AvatarImg> CACHE =
+            Collections.synchronizedMap(new HashMap<>());
+    private static final Metrics.HitRate HIT_RATE = Metrics.hitRate("view.avatar_cache");
+    // items currently loaded in background; guarded by itself
+    private static final Set<Item> PENDING = new HashSet<>();
+    // placeholder images by size
+    private static final Map<Integer, AvatarImg> PLACEHOLDERS =
+            Collections.synchronizedMap(new HashMap<>());
+    // notified on EDT after images were loaded in background; EDT only
+    private static final List<Runnable> LISTENERS = new ArrayList<>();
 
     static AvatarImg load(Chat chat, int size) {
         return load(new Item(chat, size));
@@ -60,13 +83,100 @@ final class AvatarLoader {
         return load(new Item(size));
     }
 
+    /** Return image if loaded, else a placeholder and load in background. */
+    static AvatarImg loadAsync(Chat chat, int size) {
+        return loadAsync(new Item(chat, size));
+    }
+
+    /** Return image if loaded, else a placeholder and load in background. */
+    static AvatarImg loadAsync(Contact contact, int size) {
+        return loadAsync(new Item(contact, size));
+    }
+
+    /** Load image in background if not already loaded. */
+    static void prewarm(Chat chat, int size) {
+        loadAsync(new Item(chat, size));
+    }
+
+    /** Load image in background if not already loaded. */
+    static void prewarm(Contact contact, int size) {
+        loadAsync(new Item(contact, size));
+    }
+
+    /** Add a listener that is run on EDT after images were loaded in background. */
+    static void addListener(Runnable listener) {
+        LISTENERS.add(listener);
+    }
+
     private AvatarLoader() {}
 
     private static AvatarImg load(Item item) {
-        if (!CACHE.containsKey(item)) {
+        AvatarImg img = CACHE.get(item);
+        HIT_RATE.record(img != null);
+        if (img == null) {
+            img = item.createImage();
+            CACHE.put(item, img);
+        }
+        return img;
+    }
+
+    private static AvatarImg loadAsync(Item item) {
+        AvatarImg img = CACHE.get(item);
+        HIT_RATE.record(img != null);
+        if (img != null)
+            return img;
+
+        Future<?> future;
+        synchronized (PENDING) {
+            if (!PENDING.add(item))
+                return placeholder(item.mSize);
+            future = Scheduler.getInstance().submit(Scheduler.Pool.DISK,
+                    () -> loadInBackground(item));
+        }
+        if (future.isCancelled()) {
+            // rejected, nobody else will load it
+            synchronized (PENDING) {
+                PENDING.remove(item);
+            }
+            return load(item);
+        }
+        return placeholder(item.mSize);
+    }
+
+    private static void loadInBackground(Item item) {
+        boolean last;
+        try {
             CACHE.put(item, item.createImage());
+        } finally {
+            synchronized (PENDING) {
+                PENDING.remove(item);
+                last = PENDING.isEmpty();
+            }
+        }
+        // coalesce: notify once after a batch of items
+        if (last) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    for (Runnable listener : LISTENERS)
+                        listener.run();
+                }
+            });
+        }
+    }
+
+    private static AvatarImg placeholder(int size) {
+        AvatarImg img = PLACEHOLDERS.get(size);
+        if (img == null) {
+            BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = image.createGraphics();
+            graphics.setColor(FALLBACK_COLOR);
+            graphics.fillRect(0, 0, size, size);
+            graphics.dispose();
+            img = new AvatarImg(image, true);
+            PLACEHOLDERS.put(size, img);
         }
-        return CACHE.get(item);
+        return img;
     }
 
     static class AvatarImg {
@@ -194,7 +304,8 @@ final class AvatarLoader {
         return x;
     }
 
-    private static AvatarImg fallback(String letter, Color color, int size) {
+    // visible for benchmarks
+    static AvatarImg fallback(String letter, Color color, int size) {
         BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
 
         Graphics2D graphics = img.createGraphics();
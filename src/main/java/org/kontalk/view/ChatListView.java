@@ -24,6 +24,9 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
@@ -55,11 +58,18 @@ final class ChatListView extends ListView<Chat> {
                 new FlyweightChatItem(),
                 new FlyweightChatItem(),
                 ListSelectionModel.SINGLE_SELECTION,
-                false,
-                true);
+                false);
 
         mChatList = chatList;
 
+        // avatars are loaded in background while rendering
+        AvatarLoader.addListener(new Runnable() {
+            @Override
+            public void run() {
+                ChatListView.this.repaint();
+            }
+        });
+
         this.updateOnEDT(null);
     }
 
@@ -85,8 +95,11 @@ final class ChatListView extends ListView<Chat> {
 
     @Override
     protected void updateOnEDT(Object arg) {
-        if (arg == null || arg == ChatList.ViewChange.MODIFIED)
-            this.sync(mChatList.getAll());
+        if ((arg == null || arg == ChatList.ViewChange.MODIFIED) &&
+                !this.sync(mChatList.getAll()).isEmpty()) {
+            for (Chat chat : this.getDisplayedValues(View.PREWARM_ROWS))
+                AvatarLoader.prewarm(chat, View.AVATAR_LIST_SIZE);
+        }
     }
 
     @Override
@@ -148,6 +161,25 @@ final class ChatListView extends ListView<Chat> {
                 + "</body></html>";
     }
 
+    @Override
+    protected Optional<Date> relativeTime(Chat value) {
+        // shown if nobody is writing
+        if (!chatState(value).isEmpty())
+            return Optional.empty();
+        return value.getMessages().getLast().map(KonMessage::getDate);
+    }
+
+    @Override
+    protected Collection<String> searchTerms(Chat value) {
+        List<String> terms = new ArrayList<>();
+        for (Contact contact : value.getAllContacts()) {
+            terms.add(contact.getName());
+            terms.add(contact.getJID().string());
+        }
+        terms.add(value.getSubject());
+        return terms;
+    }
+
     @Override
     protected void onRenameEvent() {
         Chat chat = this.getSelectedValue().orElse(null);
@@ -172,7 +204,7 @@ final class ChatListView extends ListView<Chat> {
             this.setLayout(new BorderLayout(View.GAP_DEFAULT, 0));
             this.setMargin(View.MARGIN_DEFAULT);
 
-            mAvatar = new ComponentUtils.AvatarImage(View.AVATAR_LIST_SIZE);
+            mAvatar = new ComponentUtils.AvatarImage(View.AVATAR_LIST_SIZE, true);
             this.add(mAvatar, BorderLayout.WEST);
 
             mTitleLabel = new WebLabel();
@@ -214,18 +246,7 @@ final class ChatListView extends ListView<Chat> {
                 mTitleLabel.setForeground(View.DARK_GREEN);
 
             // state
-            String stateText = "";
-            List<Member> members = value.getAllMembers();
-            if (!members.isEmpty()) {
-                Member member = members.get(0);
-                switch (member.getState()) {
-                    case composing:
-                        stateText = Tr.tr("is writing…");
-                        break;
-                    //case paused: activity = T/r.tr("stopped typing"); break;
-                    //case inactive: stateText = T/r.tr("is inactive"); break;
-                }
-            }
+            String stateText = chatState(value);
             // not used: chatstates for group chats
 //                if (!stateText.isEmpty() && mValue.isGroupChat())
 //                    stateText = member.getContact().getName() + ": " + stateText;
@@ -237,6 +258,20 @@ final class ChatListView extends ListView<Chat> {
         }
     }
 
+    private static String chatState(Chat chat) {
+        List<Member> members = chat.getAllMembers();
+        if (!members.isEmpty()) {
+            Member member = members.get(0);
+            switch (member.getState()) {
+                case composing:
+                    return Tr.tr("is writing…");
+                //case paused: activity = T/r.tr("stopped typing"); break;
+                //case inactive: stateText = T/r.tr("is inactive"); break;
+            }
+        }
+        return "";
+    }
+
     private static String lastActivity(Chat chat, boolean withLabel, boolean pretty) {
         KonMessage m = chat.getMessages().getLast().orElse(null);
         return m == null ? Tr.tr("No messages yet") :
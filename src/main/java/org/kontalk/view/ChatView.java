@@ -39,12 +39,15 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.io.File;
 import java.util.EnumSet;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Logger;
 
 import com.alee.extended.panel.GroupPanel;
 import com.alee.laf.button.WebButton;
@@ -79,13 +82,19 @@ import org.kontalk.util.Tr;
  *
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
-final class ChatView extends WebPanel implements Observer {
+final class ChatView extends WebPanel implements Observer, UpdateBus.Receiver {
+    private static final Logger LOGGER = Logger.getLogger(ChatView.class.getName());
 
     private static final Icon ATT_ICON = Utils.getIcon("ic_ui_attach.png");
     private static final Icon SEND_ICON = Utils.getIcon("ic_ui_send.png");
 
     private enum ButtonStatus {Attachment, AttDisabled, Send, Disabled}
 
+    /** Maximum number of message lists of not shown chats kept in memory. */
+    private static final int MAX_CACHED_LISTS = 10;
+    /** Heap usage ratio above which all lists of not shown chats are dropped. */
+    private static final double MEMORY_PRESSURE_RATIO = 0.75;
+
     private final View mView;
 
     private final ComponentUtils.AvatarImage mAvatar;
@@ -99,7 +108,17 @@ final class ChatView extends WebPanel implements Observer {
     private final WebScrollPane mScrollPane;
     private final ComposingArea mTextComposingArea;
 
-    private final Map<Chat, MessageList> mMessageListCache = new HashMap<>();
+    // least recently shown first
+    private final Map<Chat, MessageList> mMessageListCache =
+            new LinkedHashMap<Chat, MessageList>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Chat, MessageList> eldest) {
+                    if (this.size() <= MAX_CACHED_LISTS)
+                        return false;
+                    disposeList(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+            };
 
     private Background mDefaultBG;
 
@@ -158,8 +177,14 @@ final class ChatView extends WebPanel implements Observer {
                 // scrolling down WHILE rendering until the final bottom is reached
                 if (e.getValueIsAdjusting())
                     mScrollDown = false;
-                if (mScrollDown)
+                if (mScrollDown) {
                     e.getAdjustable().setValue(e.getAdjustable().getMaximum());
+                } else if (e.getValue() == e.getAdjustable().getMinimum()) {
+                    // scrolled to top, load older messages
+                    MessageList list = ChatView.this.currentMessageListOrNull();
+                    if (list != null && list.hasMoreHistory())
+                        list.loadMoreHistory();
+                }
             }
         });
         mScrollPane.setViewport(new WebViewport() {
@@ -251,13 +276,17 @@ final class ChatView extends WebPanel implements Observer {
 
         chat.addObserver(this);
 
-        if (!mMessageListCache.containsKey(chat)) {
-            MessageList newMessageList = new MessageList(mView, this, chat);
-            chat.addObserver(newMessageList);
-            mMessageListCache.put(chat, newMessageList);
+        MessageList messageList = mMessageListCache.get(chat);
+        if (messageList == null) {
+            this.evictOnMemoryPressure();
+            messageList = new MessageList(mView, this, chat);
+            chat.addObserver(messageList);
+            mMessageListCache.put(chat, messageList);
+        } else if (messageList.resetHistory()) {
+            this.setScrollDown();
         }
         // set to current chat
-        mScrollPane.getViewport().setView(mMessageListCache.get(chat));
+        mScrollPane.getViewport().setView(messageList);
         this.onChatChange();
 
         chat.setRead();
@@ -326,16 +355,14 @@ final class ChatView extends WebPanel implements Observer {
 
     @Override
     public void update(Observable o, final Object arg) {
-        if (SwingUtilities.isEventDispatchThread()) {
+        // coalesced, delivered on EDT
+        mView.updateBus().post(this, o, arg);
+    }
+
+    @Override
+    public void updateOnEDT(Observable o, Set<Object> args) {
+        for (Object arg : args)
             this.updateOnEDT(arg);
-            return;
-        }
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                ChatView.this.updateOnEDT(arg);
-            }
-        });
     }
 
     private void updateOnEDT(Object arg) {
@@ -343,10 +370,8 @@ final class ChatView extends WebPanel implements Observer {
             Chat chat = (Chat) arg;
             if (chat.isDeleted()) {
                 MessageList viewList = mMessageListCache.remove(chat);
-                if (viewList != null) {
-                    viewList.clearItems();
-                    chat.deleteObserver(viewList);
-                }
+                if (viewList != null)
+                    disposeList(chat, viewList);
             }
         }
 
@@ -356,6 +381,30 @@ final class ChatView extends WebPanel implements Observer {
         }
     }
 
+    /** Drop message lists of all not shown chats if heap is running full. */
+    private void evictOnMemoryPressure() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        if (used < runtime.maxMemory() * MEMORY_PRESSURE_RATIO)
+            return;
+
+        MessageList current = this.currentMessageListOrNull();
+        Iterator<Map.Entry<Chat, MessageList>> it = mMessageListCache.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Chat, MessageList> e = it.next();
+            if (e.getValue() == current)
+                continue;
+            disposeList(e.getKey(), e.getValue());
+            it.remove();
+        }
+        LOGGER.info("memory pressure, cached lists: "+mMessageListCache.size());
+    }
+
+    private static void disposeList(Chat chat, MessageList list) {
+        list.clearItems();
+        chat.deleteObserver(list);
+    }
+
     void updateMessageLists() {
         for (MessageList messageList : mMessageListCache.values())
             messageList.updateMessageFontSize();
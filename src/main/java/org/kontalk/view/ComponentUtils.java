@@ -957,19 +957,30 @@ final class ComponentUtils {
     static class AvatarImage extends WebDecoratedImage {
 
         final int mSize;
+        // load images in background, for list items
+        private final boolean mAsync;
 
         AvatarImage(int size) {
+            this(size, false);
+        }
+
+        AvatarImage(int size, boolean async) {
             mSize = size;
+            mAsync = async;
 
             this.setRound(0);
         }
 
         void setAvatarImage(Contact c) {
-            this.setAvatarImg(AvatarLoader.load(c, mSize));
+            this.setAvatarImg(mAsync ?
+                    AvatarLoader.loadAsync(c, mSize) :
+                    AvatarLoader.load(c, mSize));
         }
 
         void setAvatarImage(Chat c) {
-            this.setAvatarImg(AvatarLoader.load(c, mSize));
+            this.setAvatarImg(mAsync ?
+                    AvatarLoader.loadAsync(c, mSize) :
+                    AvatarLoader.load(c, mSize));
         }
 
         void setAvatarImg(AvatarImg avatarImg) {
@@ -33,6 +33,7 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,6 +55,7 @@ import com.alee.managers.tooltip.TooltipManager;
 import org.apache.commons.lang.StringUtils;
 import org.kontalk.crypto.PersonalKey;
 import org.kontalk.misc.KonException;
+import org.kontalk.misc.Metrics;
 import org.kontalk.model.Account;
 import org.kontalk.model.Model;
 import org.kontalk.persistence.Config;
@@ -90,11 +92,13 @@ final class ConfigurationDialog extends WebDialog {
         final AccountPanel accountPanel = new AccountPanel();
         final PrivacyPanel privacyPanel = new PrivacyPanel();
         final ViewPanel viewPanel = new ViewPanel();
+        final DiagnosticsPanel diagnosticsPanel = new DiagnosticsPanel();
         tabbedPane.addTab(Tr.tr("Main"), mainPanel);
         tabbedPane.addTab(Tr.tr("Network"), networkPanel);
         tabbedPane.addTab(Tr.tr("Account"), accountPanel);
         tabbedPane.addTab(Tr.tr("Privacy"), privacyPanel);
         tabbedPane.addTab(Tr.tr("View"), viewPanel);
+        tabbedPane.addTab(Tr.tr("Diagnostics"), diagnosticsPanel);
 
         this.add(tabbedPane, BorderLayout.CENTER);
 
@@ -115,6 +119,7 @@ final class ConfigurationDialog extends WebDialog {
                 privacyPanel.saveConfiguration();
                 networkPanel.saveConfiguration();
                 viewPanel.saveConfiguration();
+                diagnosticsPanel.saveConfiguration();
 
                 // better save twice than never
                 mConf.saveToFile();
@@ -484,6 +489,62 @@ final class ConfigurationDialog extends WebDialog {
         }
     }
 
+    private class DiagnosticsPanel extends WebPanel {
+
+        private final WebCheckBox mDumpBox;
+        private final WebTextArea mMetricsArea;
+
+        DiagnosticsPanel() {
+            this.setMargin(View.MARGIN_BIG);
+            this.setLayout(new BorderLayout(View.GAP_DEFAULT, View.GAP_DEFAULT));
+
+            GroupPanel groupPanel = new GroupPanel(View.GAP_DEFAULT, false);
+            groupPanel.add(new WebLabel(Tr.tr("Diagnostics")).setBoldFont());
+            groupPanel.add(new WebSeparator(true, true));
+
+            mDumpBox = createCheckBox(Tr.tr("Write metrics to file"),
+                    Tr.tr("Periodically append runtime metrics to a file in the application directory"),
+                    mConf.getBoolean(Config.MAIN_METRICS_DUMP));
+            groupPanel.add(new GroupPanel(mDumpBox, new WebSeparator()));
+            this.add(groupPanel, BorderLayout.NORTH);
+
+            mMetricsArea = new WebTextArea();
+            mMetricsArea.setEditable(false);
+            mMetricsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, View.FONT_SIZE_SMALL));
+            this.add(new ComponentUtils.ScrollPane(mMetricsArea), BorderLayout.CENTER);
+
+            WebButton refreshButton = new WebButton(Tr.tr("Refresh"));
+            refreshButton.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    DiagnosticsPanel.this.updateMetrics();
+                }
+            });
+            GroupPanel buttonPanel = new GroupPanel(refreshButton);
+            buttonPanel.setLayout(new FlowLayout(FlowLayout.TRAILING));
+            this.add(buttonPanel, BorderLayout.SOUTH);
+
+            this.updateMetrics();
+        }
+
+        private void updateMetrics() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Number> e : Metrics.snapshot().entrySet()) {
+                Number value = e.getValue();
+                String text = value instanceof Double ?
+                        String.format("%.1f%%", value.doubleValue() * 100) :
+                        value.toString();
+                sb.append(String.format("%-40s %s%n", e.getKey(), text));
+            }
+            mMetricsArea.setText(sb.toString());
+            mMetricsArea.setCaretPosition(0);
+        }
+
+        private void saveConfiguration() {
+            mConf.setProperty(Config.MAIN_METRICS_DUMP, mDumpBox.isSelected());
+        }
+    }
+
     private static WebCheckBox createCheckBox(String title, String tooltip, boolean selected) {
         WebCheckBox checkBox = new WebCheckBox(Tr.tr(title));
         checkBox.setAnimated(false);
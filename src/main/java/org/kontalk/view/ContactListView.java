@@ -26,6 +26,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
@@ -57,11 +60,18 @@ final class ContactListView extends ListView<Contact> {
                 new FlyweightContactItem(),
                 new FlyweightContactItem(),
                 ListSelectionModel.SINGLE_SELECTION,
-                true,
                 true);
 
         mModel = model;
 
+        // avatars are loaded in background while rendering
+        AvatarLoader.addListener(new Runnable() {
+            @Override
+            public void run() {
+                ContactListView.this.repaint();
+            }
+        });
+
         // actions triggered by mouse events
         this.addMouseListener(new MouseAdapter() {
             @Override
@@ -86,7 +96,11 @@ final class ContactListView extends ListView<Contact> {
     protected void updateOnEDT(Object arg) {
         boolean hideBlocked = Config.getInstance()
                 .getBoolean(Config.VIEW_HIDE_BLOCKED);
-        this.sync(Utils.allContacts(mModel.contacts(), !hideBlocked));
+        boolean added = !this.sync(Utils.allContacts(mModel.contacts(), !hideBlocked)).isEmpty();
+        if (added) {
+            for (Contact contact : this.getDisplayedValues(View.PREWARM_ROWS))
+                AvatarLoader.prewarm(contact, View.AVATAR_LIST_SIZE);
+        }
     }
 
     @Override
@@ -189,6 +203,16 @@ final class ContactListView extends ListView<Contact> {
         return html;
     }
 
+    @Override
+    protected Optional<Date> relativeTime(Contact value) {
+        return Utils.mainStatusTime(value);
+    }
+
+    @Override
+    protected Collection<String> searchTerms(Contact value) {
+        return Arrays.asList(value.getName(), value.getJID().string());
+    }
+
     @Override
     protected void onRenameEvent() {
         Contact contact = this.getSelectedValue().orElse(null);
@@ -209,7 +233,7 @@ final class ContactListView extends ListView<Contact> {
             this.setLayout(new BorderLayout(View.GAP_DEFAULT, 0));
             this.setMargin(View.MARGIN_SMALL);
 
-            mAvatar = new ComponentUtils.AvatarImage(View.AVATAR_LIST_SIZE);
+            mAvatar = new ComponentUtils.AvatarImage(View.AVATAR_LIST_SIZE, true);
             this.add(mAvatar, BorderLayout.WEST);
 
             mNameLabel = new WebLabel();
@@ -0,0 +1,261 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.view;
+
+import javax.swing.SwingUtilities;
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.kontalk.misc.Metrics;
+import org.kontalk.system.Scheduler;
+
+/**
+ * Detects stalls of the event dispatch thread.
+ *
+ * Every dispatched event is timed. If a dispatch takes longer than a
+ * threshold the EDT stack is sampled until it returns. The stall is then
+ * attributed to the list renderer ({@link ListView.FlyweightItem}) found
+ * in most samples and logged with the most frequent stack.
+ *
+ * Reports to {@link Metrics}: dispatch time and queue lag, number and
+ * time of stalls per renderer and render time per renderer.
+ * Stalls outside of renderers are attributed to the innermost class of
+ * this application on the stack.
+ */
+final class EDTWatchdog {
+    private static final Logger LOGGER = Logger.getLogger(EDTWatchdog.class.getName());
+
+    private static final long STALL_THRESHOLD = 100; // milliseconds
+    private static final long SAMPLE_INTERVAL = 20; // milliseconds
+    private static final int MAX_SAMPLES = 250;
+    private static final int LOGGED_FRAMES = 12;
+    private static final long LAG_PROBE_INTERVAL = 1; // seconds
+    private static final String OTHER = "other";
+    private static final String OWN_PACKAGE = "org.kontalk.";
+
+    private static final Metrics.Histogram DISPATCH_TIME = Metrics.histogram("view.edt_dispatch");
+    private static final Metrics.Histogram LAG = Metrics.histogram("view.edt_lag");
+    private static final Metrics.Counter STALLS = Metrics.counter("view.edt_stalls");
+
+    // class names of all renderers seen so far
+    private static final Set<String> RENDERERS = ConcurrentHashMap.newKeySet();
+    // render time by renderer class; EDT only
+    private static final Map<Class<?>, Metrics.Histogram> RENDER_TIMES = new HashMap<>();
+
+    private static EDTWatchdog INSTANCE = null;
+
+    private final Thread mSampler;
+
+    // set on EDT, read by sampler
+    private volatile Thread mEDT = null;
+    // start of the current innermost dispatch, 0 if idle
+    private volatile long mDispatchStart = 0;
+
+    // EDT only
+    private int mDepth = 0;
+    private boolean mHasNested = false;
+
+    // stack samples of the current dispatch; guarded by this
+    private final List<StackTraceElement[]> mSamples = new ArrayList<>();
+    private long mSampledDispatch = 0;
+
+    private EDTWatchdog() {
+        // own thread, sampling must not wait for pool tasks
+        mSampler = new Thread(this::sampleLoop, "EDT Watchdog");
+        mSampler.setDaemon(true);
+    }
+
+    /** Start watching. Call once on EDT. */
+    static void start() {
+        if (INSTANCE != null)
+            return;
+        INSTANCE = new EDTWatchdog();
+
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(INSTANCE.new TimingQueue());
+        INSTANCE.mSampler.start();
+
+        Scheduler.getInstance().scheduleAtFixedRate(Scheduler.Pool.UI,
+                () -> {
+                    long posted = System.nanoTime();
+                    SwingUtilities.invokeLater(() -> LAG.recordSince(posted));
+                },
+                LAG_PROBE_INTERVAL, LAG_PROBE_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /** Record the render time of a list item. EDT only. */
+    static void rendered(ListView.FlyweightItem<?> item, long startNanos) {
+        Class<?> cls = item.getClass();
+        Metrics.Histogram histogram = RENDER_TIMES.get(cls);
+        if (histogram == null) {
+            histogram = Metrics.histogram("view.render." + cls.getSimpleName());
+            RENDER_TIMES.put(cls, histogram);
+            RENDERERS.add(cls.getName());
+        }
+        histogram.recordSince(startNanos);
+    }
+
+    private final class TimingQueue extends EventQueue {
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            mEDT = Thread.currentThread();
+            // a dispatch running a nested event loop (e.g. a modal dialog)
+            // is blocked but the EDT is not, only the inner ones are timed
+            boolean outerHasNested = mDepth > 0 || mHasNested;
+            mHasNested = false;
+            mDepth++;
+            long start = System.nanoTime();
+            mDispatchStart = start;
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                mDispatchStart = 0;
+                mDepth--;
+                boolean hasNested = mHasNested;
+                mHasNested = outerHasNested;
+                if (hasNested) {
+                    EDTWatchdog.this.dropSamples();
+                } else {
+                    long elapsed = System.nanoTime() - start;
+                    DISPATCH_TIME.record(TimeUnit.NANOSECONDS.toMicros(elapsed));
+                    EDTWatchdog.this.dispatched(start,
+                            TimeUnit.NANOSECONDS.toMillis(elapsed), event);
+                }
+            }
+        }
+    }
+
+    private void sampleLoop() {
+        while (true) {
+            try {
+                Thread.sleep(SAMPLE_INTERVAL);
+            } catch (InterruptedException ex) {
+                LOGGER.log(Level.WARNING, "interrupted", ex);
+                return;
+            }
+
+            long start = mDispatchStart;
+            Thread edt = mEDT;
+            if (start == 0 || edt == null ||
+                    System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(STALL_THRESHOLD))
+                continue;
+
+            StackTraceElement[] stack = edt.getStackTrace();
+            synchronized (this) {
+                // dispatch could have ended while sampling
+                if (mDispatchStart != start)
+                    continue;
+                if (mSampledDispatch != start) {
+                    mSamples.clear();
+                    mSampledDispatch = start;
+                }
+                if (mSamples.size() < MAX_SAMPLES)
+                    mSamples.add(stack);
+            }
+        }
+    }
+
+    private void dispatched(long start, long millis, AWTEvent event) {
+        if (millis < STALL_THRESHOLD) {
+            this.dropSamples();
+            return;
+        }
+
+        List<StackTraceElement[]> samples;
+        synchronized (this) {
+            samples = mSampledDispatch == start ?
+                    new ArrayList<>(mSamples) :
+                    new ArrayList<>();
+            mSamples.clear();
+            mSampledDispatch = 0;
+        }
+
+        // count samples per renderer and per stack
+        Map<String, Integer> renderers = new HashMap<>();
+        Map<List<StackTraceElement>, Integer> stacks = new HashMap<>();
+        for (StackTraceElement[] sample : samples) {
+            renderers.merge(renderer(sample), 1, Integer::sum);
+            List<StackTraceElement> top = Arrays.asList(sample)
+                    .subList(0, Math.min(sample.length, LOGGED_FRAMES));
+            stacks.merge(top, 1, Integer::sum);
+        }
+        String renderer = renderers.isEmpty() ?
+                OTHER :
+                maxKey(renderers);
+
+        STALLS.inc();
+        Metrics.counter("view.edt_stall_ms." + renderer).add(millis);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("edt stall: ").append(millis).append("ms, renderer: ").append(renderer)
+                .append(", samples: ").append(samples.size())
+                .append(", event: ").append(event.getClass().getSimpleName());
+        if (!stacks.isEmpty()) {
+            for (StackTraceElement e : maxKey(stacks))
+                sb.append("\n\tat ").append(e);
+        }
+        LOGGER.warning(sb.toString());
+    }
+
+    private synchronized void dropSamples() {
+        mSamples.clear();
+        mSampledDispatch = 0;
+    }
+
+    /**
+     * Simple name of the innermost renderer on the stack. If there is none,
+     * of the innermost class of this application, else "other".
+     */
+    private static String renderer(StackTraceElement[] stack) {
+        String own = null;
+        for (StackTraceElement e : stack) {
+            String className = e.getClassName();
+            if (RENDERERS.contains(className))
+                return simpleName(className);
+            if (own == null && className.startsWith(OWN_PACKAGE)
+                    && !className.equals(EDTWatchdog.class.getName())
+                    && !className.startsWith(EDTWatchdog.class.getName() + "$"))
+                own = simpleName(className);
+        }
+        return own != null ? own : OTHER;
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(Math.max(className.lastIndexOf('$'),
+                className.lastIndexOf('.')) + 1);
+    }
+
+    private static <K> K maxKey(Map<K, Integer> counts) {
+        return counts.entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .get()
+                .getKey();
+    }
+}
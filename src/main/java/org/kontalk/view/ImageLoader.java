@@ -22,6 +22,7 @@ import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import javax.swing.ImageIcon;
+import org.kontalk.misc.Metrics;
 import org.kontalk.system.AttachmentManager;
 import org.kontalk.util.MediaUtils;
 
@@ -32,11 +33,14 @@ import org.kontalk.util.MediaUtils;
 class ImageLoader {
 
     private static final Map<Path, ImageIcon> CACHE = new HashMap<>();
+    private static final Metrics.HitRate HIT_RATE = Metrics.hitRate("view.image_cache");
 
     private ImageLoader() {}
 
     static ImageIcon imageIcon(Path path) {
-        if (CACHE.containsKey(path))
+        boolean cached = CACHE.containsKey(path);
+        HIT_RATE.record(cached);
+        if (cached)
             return CACHE.get(path);
 
         ImageIcon imageIcon = load(path);
@@ -37,6 +37,7 @@ import java.util.regex.Pattern;
 
 import com.alee.laf.text.WebTextPane;
 import com.alee.utils.WebUtils;
+import org.kontalk.system.Scheduler;
 
 /**
  * Static methods/field for parsing web links in the text of a WebTextPane.
@@ -119,7 +120,8 @@ final class LinkUtils {
                     WebUtils.browseSiteSafely(fixProto(url));
                 }
             };
-            new Thread(run, "Link Browser").start();
+            // can block
+            Scheduler.getInstance().submit(Scheduler.Pool.DISK, run);
         }
     }
 
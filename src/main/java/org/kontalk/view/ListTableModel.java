@@ -0,0 +1,129 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table model with one column for list views.
+ *
+ * Each value is mapped to its row, so single values can be found, updated
+ * and removed without scanning the table. All changes fire the smallest
+ * possible table event; the row sorter of the table then only has to move
+ * the affected rows instead of sorting everything again.
+ *
+ * Not thread-safe, use only on EDT.
+ *
+ * @param <V> the (model) value type in the list
+ */
+final class ListTableModel<V> extends AbstractTableModel {
+
+    private final Class<?> mColumnClass;
+    private final List<V> mValues = new ArrayList<>();
+    private final Map<V, Integer> mRows = new HashMap<>();
+
+    ListTableModel(Class<?> columnClass) {
+        mColumnClass = columnClass;
+    }
+
+    @Override
+    public int getRowCount() {
+        return mValues.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 1;
+    }
+
+    // row sorter needs this
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return mColumnClass;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        return mValues.get(rowIndex);
+    }
+
+    V get(int row) {
+        return mValues.get(row);
+    }
+
+    /** Return the model row of a value or -1 if not in this model. */
+    int rowOf(V value) {
+        Integer row = mRows.get(value);
+        return row == null ? -1 : row;
+    }
+
+    boolean contains(V value) {
+        return mRows.containsKey(value);
+    }
+
+    List<V> values() {
+        return Collections.unmodifiableList(mValues);
+    }
+
+    /** Append values not already in model. Fires one insert event. */
+    void addAll(Collection<V> values) {
+        int first = mValues.size();
+        for (V value : values) {
+            if (mRows.containsKey(value))
+                continue;
+            mRows.put(value, mValues.size());
+            mValues.add(value);
+        }
+        int last = mValues.size() - 1;
+        if (last >= first)
+            this.fireTableRowsInserted(first, last);
+    }
+
+    boolean remove(V value) {
+        Integer row = mRows.remove(value);
+        if (row == null)
+            return false;
+
+        mValues.remove((int) row);
+        for (int i = row; i < mValues.size(); i++)
+            mRows.put(mValues.get(i), i);
+
+        this.fireTableRowsDeleted(row, row);
+        return true;
+    }
+
+    void clear() {
+        mValues.clear();
+        mRows.clear();
+        this.fireTableDataChanged();
+    }
+
+    /** Fire an update event for the row of one value only. */
+    void valueChanged(V value) {
+        int row = this.rowOf(value);
+        if (row >= 0)
+            this.fireTableRowsUpdated(row, row);
+    }
+}
@@ -26,9 +26,9 @@ import javax.swing.RowFilter;
 import javax.swing.RowSorter;
 import javax.swing.SortOrder;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableRowSorter;
 import java.awt.Color;
@@ -42,16 +42,19 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.Date;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Optional;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import com.alee.laf.menu.WebPopupMenu;
 import com.alee.laf.panel.WebPanel;
@@ -73,12 +76,13 @@ import org.kontalk.misc.Searchable;
  * @param <V> the (model) value type in the list
  */
 abstract class ListView<V extends Observable & Searchable>
-        extends WebTable implements Observer, Comparator<V> {
+        extends WebTable implements Observer, UpdateBus.Receiver, UIClock.Receiver, Comparator<V> {
+    private static final Logger LOGGER = Logger.getLogger(ListView.class.getName());
 
     private final Class mVClass;
     final View mView;
-    private final DefaultTableModel mModel;
-    private final TableRowSorter<DefaultTableModel> mRowSorter;
+    private final ListTableModel<V> mModel;
+    private final TableRowSorter<ListTableModel<V>> mRowSorter;
 
     /** Flyweight item that is used by cell renderer. */
     protected final FlyweightItem mRenderItem;
@@ -87,6 +91,11 @@ abstract class ListView<V extends Observable & Searchable>
 
     /** The current search string. */
     private String mSearch = "";
+    /** Values matching the current search if found by index, else null. */
+    private Set<V> mMatches = null;
+    private final SearchIndex<V> mSearchIndex = new SearchIndex<>(this::searchTerms);
+    // incremented for each search, older async results are discarded
+    private int mSearchGeneration = 0;
 
     private WebCustomTooltip mTip = null;
 
@@ -95,8 +104,7 @@ abstract class ListView<V extends Observable & Searchable>
     ListView(View view,
              FlyweightItem renderItem, FlyweightItem editorItem,
              int selectionMode,
-             boolean filterSelected,
-             boolean activateTimer) {
+             boolean filterSelected) {
 
         // damn Java
         mVClass = (Class<V>) ((ParameterizedType) getClass()
@@ -110,16 +118,10 @@ abstract class ListView<V extends Observable & Searchable>
         this.setSelectionMode(selectionMode);
 
         // model
-        mModel = new DefaultTableModel(0, 1) {
-            // row sorter needs this
-            @Override
-            public Class<?> getColumnClass(int columnIndex) {
-                return ListView.this.getColumnClass(columnIndex);
-            }
-        };
+        mModel = new ListTableModel<>(mVClass);
         this.setModel(mModel);
 
-        // sorter
+        // sorter; on single row updates only the changed row is moved
         mRowSorter = new TableRowSorter<>(mModel);
         mRowSorter.setComparator(0, this);
         List<RowSorter.SortKey> sortKeys = new ArrayList<>();
@@ -128,12 +130,12 @@ abstract class ListView<V extends Observable & Searchable>
         mRowSorter.setSortsOnUpdates(true);
         mRowSorter.sort();
         // filter
-        RowFilter<DefaultTableModel, Integer> rowFilter = new RowFilter<DefaultTableModel, Integer>() {
+        RowFilter<ListTableModel<V>, Integer> rowFilter = new RowFilter<ListTableModel<V>, Integer>() {
             @Override
-            public boolean include(Entry<? extends DefaultTableModel, ? extends Integer> entry) {
+            public boolean include(Entry<? extends ListTableModel<V>, ? extends Integer> entry) {
                 V v = (V) entry.getValue(0);
                 return (!filterSelected && v.equals(ListView.this.getSelectedValue().orElse(null)))
-                               || v.contains(mSearch);
+                               || (mMatches != null ? mMatches.contains(v) : v.contains(mSearch));
             }
         };
         mRowSorter.setRowFilter(rowFilter);
@@ -197,19 +199,6 @@ abstract class ListView<V extends Observable & Searchable>
             }
         });
 
-        if (activateTimer) {
-            Timer aTimer = new Timer();
-            // update periodically values to be up-to-date with 'last seen' text
-            TimerTask statusTask = new TimerTask() {
-                @Override
-                public void run() {
-                    ListView.this.update(null, null);
-                }
-            };
-            long timerInterval = TimeUnit.SECONDS.toMillis(60);
-            aTimer.schedule(statusTask, timerInterval, timerInterval);
-        }
-
         // actions triggered by selection
         this.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
             @Override
@@ -257,44 +246,67 @@ abstract class ListView<V extends Observable & Searchable>
 
     protected abstract WebPopupMenu rightClickMenu(List<V> selectedValues);
 
-    @SuppressWarnings("unchecked")
-    boolean sync(Set<V> values) {
-        Set<V> oldValues = new HashSet<>();
+    /** Show exactly the given values, return the newly added ones. */
+    List<V> sync(Set<V> values) {
         // remove old
-        for (int i=0; i < mModel.getRowCount(); i++) {
-            V value = (V) mModel.getValueAt(i, 0);
-            if (!values.contains(value)) {
-                value.deleteObserver(this);
-                mModel.removeRow(i);
-                i--;
-            } else {
-                oldValues.add(value);
-            }
+        List<V> removed = mModel.values().stream()
+                .filter(v -> !values.contains(v))
+                .collect(Collectors.toList());
+        for (V value : removed) {
+            value.deleteObserver(this);
+            mModel.remove(value);
         }
 
         // add new
-        boolean added = false;
-        for (V v: values) {
-            if (!oldValues.contains(v)) {
-                mModel.addRow(new Object[]{v});
-                v.addObserver(this);
-                added = true;
-            }
+        List<V> added = new ArrayList<>();
+        for (V v : values) {
+            if (!mModel.contains(v))
+                added.add(v);
         }
+        if (!removed.isEmpty() || !added.isEmpty())
+            mSearchIndex.invalidate();
+        added.forEach(this::updateMatch);
+        mModel.addAll(added);
+        added.forEach(v -> v.addObserver(this));
         return added;
     }
 
     void clearItems() {
-        mModel.setRowCount(0);
+        for (V value : mModel.values())
+            value.deleteObserver(this);
+        mModel.clear();
+        mSearchIndex.invalidate();
+    }
+
+    boolean containsValue(V value) {
+        return mModel.contains(value);
     }
 
     V getDisplayedValueAt(int row) {
         return this.getValueAtModelIndex(mRowSorter.convertRowIndexToModel(row));
     }
 
-    @SuppressWarnings("unchecked")
     V getValueAtModelIndex(int row) {
-        return (V) mModel.getValueAt(row, 0);
+        return mModel.get(row);
+    }
+
+    /** All values in this list, in model order. */
+    List<V> getValues() {
+        return mModel.values();
+    }
+
+    /** The displayed row of a value, -1 if not in this list or filtered out. */
+    int getDisplayedRowOf(V value) {
+        int row = mModel.rowOf(value);
+        return row < 0 ? -1 : mRowSorter.convertRowIndexToView(row);
+    }
+
+    /** The first values in displayed order, at most 'max'. */
+    List<V> getDisplayedValues(int max) {
+        List<V> values = new ArrayList<>();
+        for (int i = 0; i < Math.min(max, mRowSorter.getViewRowCount()); i++)
+            values.add(this.getDisplayedValueAt(i));
+        return values;
     }
 
     List<V> getSelectedValues() {
@@ -315,12 +327,9 @@ abstract class ListView<V extends Observable & Searchable>
     /** Resets filtering and selects the item containing the value specified. */
     void setSelectedItem(V value) {
         this.filterItems("");
-        for (int i=0; i< mModel.getRowCount(); i++) {
-            if (this.getDisplayedValueAt(i) == value) {
-                this.setSelectedItem(i);
-                break;
-            }
-        }
+        int row = mModel.rowOf(value);
+        if (row >= 0)
+            this.setSelectedItem(mRowSorter.convertRowIndexToView(row));
 
         if (this.getSelectedValue().orElse(null) != value)
             // fallback
@@ -341,32 +350,88 @@ abstract class ListView<V extends Observable & Searchable>
     }
 
     void filterItems(String search) {
+        mSearchGeneration++;
         mSearch = search;
+        mMatches = null;
         mRowSorter.sort();
     }
 
-    @Override
-    public void update(Observable o, Object arg) {
-        if (SwingUtilities.isEventDispatchThread()) {
-            this.updateOnEDT(o, arg);
+    /**
+     * Filter items using the search index in background. The result is
+     * applied in one update. Falls back to synchronous filtering for empty
+     * search strings.
+     */
+    void filterItemsAsync(String search) {
+        if (search.isEmpty()) {
+            this.filterItems(search);
             return;
         }
-        SwingUtilities.invokeLater(new Runnable() {
+
+        int generation = ++mSearchGeneration;
+        List<V> values = new ArrayList<>(mModel.values());
+        new SwingWorker<Set<V>, Void>() {
             @Override
-            public void run() {
-                ListView.this.updateOnEDT(o, arg);
+            protected Set<V> doInBackground() {
+                return mSearchIndex.search(search, values);
             }
-        });
+            @Override
+            protected void done() {
+                if (generation != mSearchGeneration)
+                    return;
+                try {
+                    mMatches = this.get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    LOGGER.log(Level.WARNING, "search failed", ex);
+                    mMatches = null;
+                }
+                mSearch = search;
+                mRowSorter.sort();
+            }
+        }.execute();
+    }
+
+    /** Searchable texts of a value for the search index. */
+    protected Collection<String> searchTerms(V value) {
+        return Collections.emptyList();
+    }
+
+    // keep index result up-to-date for added or changed values
+    private void updateMatch(V value) {
+        if (mMatches == null)
+            return;
+
+        if (value.contains(mSearch)) {
+            mMatches.add(value);
+        } else {
+            mMatches.remove(value);
+        }
     }
 
+    @Override
+    public void update(Observable o, Object arg) {
+        // coalesced, delivered on EDT
+        mView.updateBus().post(this, o, arg);
+    }
+
+    @Override
     @SuppressWarnings("unchecked")
-    private void updateOnEDT(Observable o, Object arg) {
-        if (o == null || mVClass.isAssignableFrom(o.getClass())) {
+    public void updateOnEDT(Observable o, Set<Object> args) {
+        if (o == null) {
             // render everything again (and update sorting)
             updateRowRendering(0, this.getRowCount() -1);
             return;
         }
-        this.updateOnEDT(arg);
+
+        if (mVClass.isAssignableFrom(o.getClass())) {
+            // only the row of the changed value
+            mSearchIndex.update((V) o);
+            this.updateMatch((V) o);
+            mModel.valueChanged((V) o);
+            return;
+        }
+
+        for (Object arg : args)
+            this.updateOnEDT(arg);
     }
 
     void updateRowRendering(int from, int to) {
@@ -375,6 +440,21 @@ abstract class ListView<V extends Observable & Searchable>
 
     abstract protected void updateOnEDT(Object arg);
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public void timeChanged(Object value) {
+        // render only this row again
+        mModel.valueChanged((V) value);
+    }
+
+    /**
+     * The date displayed as relative time in the rendered item of a value,
+     * if any. Used to keep 'last seen' texts up-to-date.
+     */
+    protected Optional<Date> relativeTime(V value) {
+        return Optional.empty();
+    }
+
     // WebLaf's tooltipmanager blocks mouse events, we need to invoke the tooltip manually.
     // Catch the event when a tooltip should be shown and create a own one.
     @Override
@@ -433,10 +513,20 @@ abstract class ListView<V extends Observable & Searchable>
         public Component getTableCellRendererComponent(JTable table,
                 Object value, boolean isSelected, boolean hasFocus,
                 int row, int column) {
-            return updateFlyweight(mRenderItem, table, value, row, isSelected);
+            FlyweightItem item = updateFlyweight(mRenderItem, table, value, row, isSelected);
+            if (value != null)
+                ListView.this.trackTime(value);
+            return item;
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private void trackTime(Object value) {
+        Date date = this.relativeTime((V) value).orElse(null);
+        if (date != null)
+            mView.uiClock().track(this, value, date);
+    }
+
     // needed for correct mouse behaviour for components in items
     // (and breaks selection behaviour somehow)
     @SuppressWarnings("unchecked")
@@ -469,7 +559,9 @@ abstract class ListView<V extends Observable & Searchable>
         }
 
         boolean isLast = row == table.getRowCount() - 1;
+        long start = System.nanoTime();
         item.render(valueItem, table.getWidth(), isSelected, isLast);
+        EDTWatchdog.rendered(item, start);
 
         int height = Math.max(table.getRowHeight(), item.getPreferredSize().height);
         // view item needs a little more then it preferres
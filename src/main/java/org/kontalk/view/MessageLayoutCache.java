@@ -0,0 +1,136 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import org.kontalk.misc.Metrics;
+import org.kontalk.model.message.KonMessage;
+import org.kontalk.system.Scheduler;
+
+/**
+ * Cache for the text layout of message list items.
+ *
+ * Stores for each message the linkified document of its text and the
+ * measured size of the text area for each font size and list width it was
+ * rendered with. The displayed text is used as content version: if it
+ * changed, the cached layout is dropped.
+ *
+ * Documents can be prepared in background, measuring is done on EDT.
+ */
+final class MessageLayoutCache {
+    private static final Logger LOGGER = Logger.getLogger(MessageLayoutCache.class.getName());
+
+    private static final int MAX_ENTRIES = 2000;
+
+    private static final Metrics.HitRate HIT_RATE = Metrics.hitRate("view.layout_cache");
+
+    // message ID -> layout, least recently used first; guarded by this
+    private final Map<Integer, Layout> mCache =
+            new LinkedHashMap<Integer, Layout>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Layout> eldest) {
+                    return this.size() > MAX_ENTRIES;
+                }
+            };
+
+    /** Cached layout of one message text. */
+    static final class Layout {
+        final String text;
+        final StyledDocument doc;
+        // font size and list width -> text area size; only used on EDT
+        private final Map<Long, Dimension> mSizes = new HashMap<>(4);
+
+        private Layout(String text) {
+            this.text = text;
+            this.doc = new DefaultStyledDocument();
+            LinkUtils.linkify(this.doc, text);
+        }
+
+        Optional<Dimension> getSize(int fontSize, int listWidth) {
+            return Optional.ofNullable(mSizes.get(sizeKey(fontSize, listWidth)));
+        }
+
+        void putSize(int fontSize, int listWidth, Dimension size) {
+            mSizes.put(sizeKey(fontSize, listWidth), size);
+        }
+
+        private static long sizeKey(int fontSize, int listWidth) {
+            return ((long) fontSize << 32) | (listWidth & 0xffffffffL);
+        }
+    }
+
+    /** Get the layout for the current text of a message, created if needed. */
+    Layout getOrCreate(KonMessage message, String text) {
+        synchronized (this) {
+            Layout layout = mCache.get(message.getID());
+            if (layout != null && layout.text.equals(text)) {
+                HIT_RATE.hit();
+                return layout;
+            }
+        }
+        HIT_RATE.miss();
+
+        Layout layout = new Layout(text);
+        synchronized (this) {
+            mCache.put(message.getID(), layout);
+        }
+        return layout;
+    }
+
+    synchronized boolean contains(KonMessage message, String text) {
+        Layout layout = mCache.get(message.getID());
+        return layout != null && layout.text.equals(text);
+    }
+
+    /** Drop cached layout of a message, e.g. after content changed. */
+    synchronized void invalidate(KonMessage message) {
+        mCache.remove(message.getID());
+    }
+
+    /**
+     * Create the documents for messages in background and run a callback on
+     * EDT when done. Message texts must be created on EDT before.
+     */
+    void prepareAsync(List<KonMessage> messages, List<String> texts, Runnable onEDT) {
+        if (messages.size() != texts.size())
+            throw new IllegalArgumentException("sizes differ");
+
+        List<KonMessage> ms = new ArrayList<>(messages);
+        List<String> ts = new ArrayList<>(texts);
+        Scheduler.getInstance().submit(Scheduler.Pool.UI, () -> {
+            for (int i = 0; i < ms.size(); i++) {
+                if (!this.contains(ms.get(i), ts.get(i)))
+                    this.getOrCreate(ms.get(i), ts.get(i));
+            }
+            LOGGER.config("prepared: "+ms.size());
+            SwingUtilities.invokeLater(onEDT);
+        });
+    }
+}
@@ -35,6 +35,7 @@ import javax.swing.text.IconView;
 import javax.swing.text.LabelView;
 import javax.swing.text.ParagraphView;
 import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
 import javax.swing.text.StyledEditorKit;
 import javax.swing.text.ViewFactory;
 import java.awt.BorderLayout;
@@ -47,8 +48,12 @@ import java.awt.datatransfer.Transferable;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Observable;
 import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Level;
@@ -99,6 +104,11 @@ final class MessageList extends ListView<KonMessage> {
     private static final Icon CRYPT_WARNING_ICON = Utils.getIcon("ic_msg_crypt_warning.png");
 
     private static final WrapEditorKit FIX_WRAP_KIT = new WrapEditorKit();
+    private static final MessageLayoutCache LAYOUT_CACHE = new MessageLayoutCache();
+    /** Number of messages measured in one EDT slice when preparing layouts. */
+    private static final int MEASURE_CHUNK = 20;
+    /** Number of history messages loaded at once into the list. */
+    private static final int PAGE_SIZE = 100;
     private static final WebPopupMenu TEXT_COPY_MENU = Utils.createCopyMenu(false);
 
     private final ChatView mChatView;
@@ -106,6 +116,10 @@ final class MessageList extends ListView<KonMessage> {
 
     private Background mBackground = null;
 
+    // only the newest messages are in the table model; the chat itself
+    // (ChatMessages) still holds the whole history in memory
+    private int mWindowSize = PAGE_SIZE;
+
     MessageList(View view, ChatView chatView, Chat chat) {
         // render and editor item are equal (but not the same!)
         super(view,
@@ -113,8 +127,7 @@ final class MessageList extends ListView<KonMessage> {
                 new MessageListFlyWeightItem(view),
                 // allow multiple selections for "copy" action
                 ListSelectionModel.MULTIPLE_INTERVAL_SELECTION,
-                true,
-                false);
+                true);
 
         mChatView = chatView;
         mChat = chat;
@@ -141,6 +154,19 @@ final class MessageList extends ListView<KonMessage> {
         return Optional.ofNullable(mBackground);
     }
 
+    @Override
+    public void updateOnEDT(Observable o, Set<Object> args) {
+        boolean contentChanged = o instanceof KonMessage &&
+                args.contains(KonMessage.ViewChange.CONTENT);
+        if (contentChanged)
+            LAYOUT_CACHE.invalidate((KonMessage) o);
+
+        super.updateOnEDT(o, args);
+
+        if (contentChanged && this.containsValue((KonMessage) o))
+            this.prepareLayouts(Collections.singletonList((KonMessage) o));
+    }
+
     @Override
     protected void updateOnEDT(Object arg) {
         if (arg == null || arg == Chat.ViewChange.VIEW_SETTINGS) {
@@ -153,7 +179,7 @@ final class MessageList extends ListView<KonMessage> {
 
         // check for new messages to add
         if ((arg == null || arg == Chat.ViewChange.NEW_MESSAGE) &&
-                this.getModel().getRowCount() < mChat.getMessages().size()) {
+                !mChat.getMessages().getLast().map(this::containsValue).orElse(true)) {
             this.insertMessages();
         }
 
@@ -172,10 +198,103 @@ final class MessageList extends ListView<KonMessage> {
     }
 
     private void insertMessages() {
-        boolean newAdded = this.sync(mChat.getMessages().getAll());
-        if (newAdded) {
+        List<KonMessage> added = this.syncWindow();
+        if (!added.isEmpty()) {
             //this.scrollToRow(this.getRowCount() -1);
             mChatView.setScrollDown();
+            this.prepareLayouts(added);
+        }
+    }
+
+    private List<KonMessage> syncWindow() {
+        return this.sync(new LinkedHashSet<>(mChat.getMessages().getNewest(mWindowSize)));
+    }
+
+    /** Return if there are older messages in this chat not in the list. */
+    boolean hasMoreHistory() {
+        return mChat.getMessages().size() > this.getValues().size();
+    }
+
+    /** Extend the list by one page of older messages, keep scroll position. */
+    void loadMoreHistory() {
+        if (!this.hasMoreHistory())
+            return;
+
+        KonMessage anchor = this.getRowCount() > 0 ? this.getDisplayedValueAt(0) : null;
+
+        mWindowSize += PAGE_SIZE;
+        List<KonMessage> added = this.syncWindow();
+        if (added.isEmpty())
+            return;
+
+        this.prepareLayouts(added);
+
+        if (anchor != null) {
+            int row = this.getDisplayedRowOf(anchor);
+            if (row >= 0)
+                this.scrollToRow(row);
+        }
+    }
+
+    /**
+     * Drop all rows but the newest page, e.g. when chat is shown again.
+     * @return true if rows were dropped
+     */
+    boolean resetHistory() {
+        if (mWindowSize == PAGE_SIZE)
+            return false;
+
+        mWindowSize = PAGE_SIZE;
+        this.syncWindow();
+        return true;
+    }
+
+    /**
+     * Create the text documents for added or changed messages in background
+     * and measure them on EDT in small chunks, so that scrolling does not
+     * have to.
+     */
+    private void prepareLayouts(List<KonMessage> values) {
+        List<KonMessage> messages = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (KonMessage m : values) {
+            if (m.getContent().getGroupCommand().isPresent())
+                continue;
+            String text = messageToString(m, mView, false);
+            if (!LAYOUT_CACHE.contains(m, text)) {
+                messages.add(m);
+                texts.add(text);
+            }
+        }
+        if (messages.isEmpty())
+            return;
+
+        LAYOUT_CACHE.prepareAsync(messages, texts, new Runnable() {
+            @Override
+            public void run() {
+                MessageList.this.measureLayouts(messages, 0);
+            }
+        });
+    }
+
+    private void measureLayouts(List<KonMessage> messages, int from) {
+        int width = this.getWidth();
+        if (width <= 0)
+            // not shown yet, measured when rendered
+            return;
+
+        int to = Math.min(from + MEASURE_CHUNK, messages.size());
+        MessageListFlyWeightItem item = (MessageListFlyWeightItem) mRenderItem;
+        for (KonMessage m : messages.subList(from, to))
+            item.measure(m, width);
+
+        if (to < messages.size()) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    MessageList.this.measureLayouts(messages, to);
+                }
+            });
         }
     }
 
@@ -290,6 +409,9 @@ final class MessageList extends ListView<KonMessage> {
 
         private final AttachmentPanel mAttPanel;
 
+        // own document for texts not in layout cache
+        private final StyledDocument mPlainDoc;
+
         MessageListFlyWeightItem(View view) {
             mView = view;
 
@@ -336,6 +458,7 @@ final class MessageList extends ListView<KonMessage> {
             mTextPane.addMouseMotionListener(LinkUtils.MOTION_LISTENER);
             // fix word wrap for long words
             mTextPane.setEditorKit(FIX_WRAP_KIT);
+            mPlainDoc = mTextPane.getStyledDocument();
             // right click menu
             mTextPane.setComponentPopupMenu(TEXT_COPY_MENU);
 
@@ -468,12 +591,16 @@ final class MessageList extends ListView<KonMessage> {
 
             // text in text area
             String text = messageToString(value, mView, false);
+            MessageLayoutCache.Layout layout = null;
             if (value.getContent().getGroupCommand().isPresent()) {
+                // not cached, do not overwrite a cached document
+                mTextPane.setStyledDocument(mPlainDoc);
                 mTextPane.setText(text);
                 mTextPane.setFontStyle(false, true);
             } else {
                 mTextPane.setFontStyle(false, value.isEncrypted());
-                LinkUtils.linkify(mTextPane.getStyledDocument(), text);
+                layout = LAYOUT_CACHE.getOrCreate(value, text);
+                mTextPane.setStyledDocument(layout.doc);
             }
 
             // hide area if there is no text
@@ -651,6 +778,48 @@ final class MessageList extends ListView<KonMessage> {
                 mAttPanel.setStatus(statusText);
             }
 
+            // text size, measured only once for each font size and width
+            if (layout != null) {
+                this.setTextSize(layout, listWidth);
+            } else {
+                this.setTextSize(this.measureText(listWidth));
+            }
+
+            boolean showWriting = isLast
+                    && value.getChat().getAllMembers().stream()
+                    .anyMatch(m -> m.getState() == ChatState.composing);
+            mWritingPanel.setMargin(showWriting ? View.MARGIN_SMALL : 0);
+            // decoration consumes space, even if nothing is visible in panel
+            mWritingPanel.setUndecorated(!showWriting);
+            mWritingLabel.setText(showWriting ? Tr.tr("is writing...") : "");
+        }
+
+        /** Measure and cache text size of message without rendering it. */
+        void measure(KonMessage value, int listWidth) {
+            if (value.getContent().getGroupCommand().isPresent())
+                return;
+
+            MessageLayoutCache.Layout layout =
+                    LAYOUT_CACHE.getOrCreate(value, messageToString(value, mView, false));
+            if (layout.getSize(mTextPane.getFont().getSize(), listWidth).isPresent())
+                return;
+
+            mTextPane.setFontStyle(false, value.isEncrypted());
+            mTextPane.setStyledDocument(layout.doc);
+            this.setTextSize(layout, listWidth);
+        }
+
+        private void setTextSize(MessageLayoutCache.Layout layout, int listWidth) {
+            int fontSize = mTextPane.getFont().getSize();
+            Dimension prefSize = layout.getSize(fontSize, listWidth).orElse(null);
+            if (prefSize == null) {
+                prefSize = this.measureText(listWidth);
+                layout.putSize(fontSize, listWidth, prefSize);
+            }
+            this.setTextSize(prefSize);
+        }
+
+        private Dimension measureText(int listWidth) {
             // resetting size
             mTextPane.setSize(Short.MAX_VALUE, Short.MAX_VALUE);
             mTextPane.setPreferredSize(null);
@@ -667,20 +836,14 @@ final class MessageList extends ListView<KonMessage> {
             mTextPane.setSize(width, Short.MAX_VALUE);
             int height = mTextPane.getPreferredSize().height;
 
-            Dimension prefSize = new Dimension(width, height);
+            return new Dimension(width, height);
+        }
 
+        private void setTextSize(Dimension prefSize) {
             mTextPane.setSize(prefSize);
             // textArea does not need this but textPane does, and editorPane
             // is again totally different; I love Swing
             mTextPane.setPreferredSize(prefSize);
-
-            boolean showWriting = isLast
-                    && value.getChat().getAllMembers().stream()
-                    .anyMatch(m -> m.getState() == ChatState.composing);
-            mWritingPanel.setMargin(showWriting ? View.MARGIN_SMALL : 0);
-            // decoration consumes space, even if nothing is visible in panel
-            mWritingPanel.setUndecorated(!showWriting);
-            mWritingLabel.setText(showWriting ? Tr.tr("is writing...") : "");
         }
     }
 
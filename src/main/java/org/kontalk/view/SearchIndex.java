@@ -0,0 +1,167 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Trigram index for substring search over the text terms of list values.
+ *
+ * The index is built lazily on the first search after it was invalidated,
+ * changed values can be updated one by one.
+ * A query that contains the previous query only checks the previous result.
+ *
+ * Searching should be done in background, invalidating and updating is
+ * possible from any thread.
+ *
+ * @param <V> the indexed value type
+ */
+final class SearchIndex<V> {
+
+    private static final int GRAM = 3;
+
+    private final Function<V, Collection<String>> mTerms;
+
+    private volatile boolean mDirty = true;
+
+    // guarded by this
+    // value -> lowercase text of all terms
+    private final Map<V, String> mTexts = new HashMap<>();
+    // trigram -> values containing it
+    private final Map<String, Set<V>> mGrams = new HashMap<>();
+    private String mLastQuery = null;
+    private Set<V> mLastResult = null;
+
+    /**
+     * @param terms function returning the searchable texts of a value
+     */
+    SearchIndex(Function<V, Collection<String>> terms) {
+        mTerms = terms;
+    }
+
+    /** Rebuild the index before the next search. */
+    void invalidate() {
+        mDirty = true;
+    }
+
+    /** Index the current terms of one changed value. */
+    synchronized void update(V value) {
+        if (mDirty)
+            // everything is indexed again anyway
+            return;
+
+        String oldText = mTexts.get(value);
+        if (oldText != null) {
+            for (int i = 0; i + GRAM <= oldText.length(); i++) {
+                String gram = oldText.substring(i, i + GRAM);
+                Set<V> set = mGrams.get(gram);
+                if (set != null) {
+                    set.remove(value);
+                    if (set.isEmpty())
+                        mGrams.remove(gram);
+                }
+            }
+        }
+        this.add(value);
+
+        mLastQuery = null;
+        mLastResult = null;
+    }
+
+    /**
+     * Search for values containing a (lowercase) query in one of their terms.
+     * @param values all current values, used if index needs to be rebuild
+     */
+    synchronized Set<V> search(String query, List<V> values) {
+        if (mDirty) {
+            mDirty = false;
+            this.rebuild(values);
+        }
+
+        Collection<V> candidates;
+        if (mLastQuery != null && query.contains(mLastQuery)) {
+            // narrowing the previous search
+            candidates = mLastResult;
+        } else if (query.length() >= GRAM) {
+            candidates = this.gramCandidates(query);
+        } else {
+            candidates = mTexts.keySet();
+        }
+
+        Set<V> result = candidates.stream()
+                .filter(v -> mTexts.get(v).contains(query))
+                .collect(Collectors.toSet());
+
+        mLastQuery = query;
+        mLastResult = result;
+        return new HashSet<>(result);
+    }
+
+    private void rebuild(List<V> values) {
+        mTexts.clear();
+        mGrams.clear();
+        mLastQuery = null;
+        mLastResult = null;
+
+        for (V value : values)
+            this.add(value);
+    }
+
+    private void add(V value) {
+        // terms are separated, no trigram spans two terms
+        String text = mTerms.apply(value).stream()
+                .map(String::toLowerCase)
+                .collect(Collectors.joining("\n"));
+        mTexts.put(value, text);
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            String gram = text.substring(i, i + GRAM);
+            Set<V> set = mGrams.get(gram);
+            if (set == null) {
+                set = new HashSet<>();
+                mGrams.put(gram, set);
+            }
+            set.add(value);
+        }
+    }
+
+    private Set<V> gramCandidates(String query) {
+        Set<V> candidates = null;
+        for (int i = 0; i + GRAM <= query.length(); i++) {
+            Set<V> set = mGrams.get(query.substring(i, i + GRAM));
+            if (set == null)
+                return new HashSet<>();
+
+            if (candidates == null) {
+                candidates = new HashSet<>(set);
+            } else {
+                candidates.retainAll(set);
+            }
+            if (candidates.isEmpty())
+                break;
+        }
+        return candidates;
+    }
+}
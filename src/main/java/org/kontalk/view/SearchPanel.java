@@ -19,6 +19,7 @@
 package org.kontalk.view;
 
 import javax.swing.Icon;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.awt.BorderLayout;
@@ -36,9 +37,24 @@ import org.kontalk.util.Tr;
  * @author Alexander Bikadorov {@literal <bikaejkb@mail.tu-berlin.de>}
  */
 final class SearchPanel extends WebPanel {
+    /** Time without typing before the search is started, in milliseconds. */
+    private static final int DEBOUNCE_DELAY = 150;
+
     private final WebTextField mSearchField;
+    private final Timer mSearchTimer;
 
     SearchPanel(final ListView[] lists, final ChatView chatView) {
+        mSearchTimer = new Timer(DEBOUNCE_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String searchText = mSearchField.getText().toLowerCase();
+                for (ListView list : lists)
+                    list.filterItemsAsync(searchText);
+                chatView.filterCurrentChat(searchText);
+            }
+        });
+        mSearchTimer.setRepeats(false);
+
         mSearchField = new WebTextField();
         mSearchField.setInputPrompt(Tr.tr("Search…"));
         mSearchField.getDocument().addDocumentListener(new DocumentListener() {
@@ -55,10 +71,8 @@ final class SearchPanel extends WebPanel {
                 this.filterList();
             }
             private void filterList() {
-                String searchText = mSearchField.getText().toLowerCase();
-                for (ListView list : lists)
-                    list.filterItems(searchText);
-                chatView.filterCurrentChat(searchText);
+                // wait until typing pauses
+                mSearchTimer.restart();
             }
         });
         mSearchField.setLeadingComponent(new WebImage(Utils.getIcon("ic_ui_search.png")));
@@ -0,0 +1,144 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ocpsoft.prettytime.Duration;
+
+/**
+ * Shared clock for view items displaying relative times ("5 minutes ago").
+ *
+ * Items register the date they display when they are rendered. For each
+ * date the time is computed at which its text changes, depending on the
+ * granularity of the displayed unit. Only then the receiver is told to
+ * render the item again - which registers it again if still visible.
+ * Items that are not rendered anymore are dropped automatically.
+ *
+ * Use only on EDT.
+ */
+final class UIClock {
+
+    private static final long MIN_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_DELAY = TimeUnit.HOURS.toMillis(1);
+
+    /** A view component displaying relative times of its values. */
+    interface Receiver {
+        /** The displayed time text of a value probably changed. */
+        void timeChanged(Object value);
+    }
+
+    // receiver -> (value -> time of next text change)
+    private final Map<Receiver, Map<Object, Long>> mDue = new HashMap<>();
+
+    private final Timer mTimer;
+    // time the timer fires next
+    private long mNextTick = 0;
+
+    UIClock() {
+        mTimer = new Timer(0, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                UIClock.this.tick();
+            }
+        });
+        mTimer.setRepeats(false);
+    }
+
+    /** Track a value displaying the relative time of a date. */
+    void track(Receiver receiver, Object value, Date date) {
+        long now = System.currentTimeMillis();
+        long next = nextChange(date, now);
+
+        Map<Object, Long> values = mDue.get(receiver);
+        if (values == null) {
+            values = new HashMap<>();
+            mDue.put(receiver, values);
+        }
+        values.put(value, next);
+
+        if (!mTimer.isRunning() || next < mNextTick)
+            this.start(next, now);
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<Receiver, Object>> changed = new ArrayList<>();
+        Iterator<Map.Entry<Receiver, Map<Object, Long>>> receivers = mDue.entrySet().iterator();
+        while (receivers.hasNext()) {
+            Map.Entry<Receiver, Map<Object, Long>> r = receivers.next();
+            Iterator<Map.Entry<Object, Long>> values = r.getValue().entrySet().iterator();
+            while (values.hasNext()) {
+                Map.Entry<Object, Long> v = values.next();
+                if (v.getValue() <= now) {
+                    values.remove();
+                    changed.add(new AbstractMap.SimpleEntry<>(r.getKey(), v.getKey()));
+                }
+            }
+            if (r.getValue().isEmpty())
+                receivers.remove();
+        }
+
+        // receivers may track again while rendering
+        for (Map.Entry<Receiver, Object> e : changed)
+            e.getKey().timeChanged(e.getValue());
+
+        this.restart(now);
+    }
+
+    private void restart(long now) {
+        long earliest = Long.MAX_VALUE;
+        for (Map<Object, Long> values : mDue.values())
+            for (long next : values.values())
+                earliest = Math.min(earliest, next);
+
+        mTimer.stop();
+        if (earliest != Long.MAX_VALUE)
+            this.start(earliest, now);
+    }
+
+    private void start(long time, long now) {
+        mTimer.stop();
+        mNextTick = time;
+        mTimer.setInitialDelay((int) Math.max(time - now, 0));
+        mTimer.start();
+    }
+
+    /**
+     * Time when the relative text of a date changes next. Pretty time rounds
+     * the displayed unit, so the text can change every half unit.
+     */
+    private static long nextChange(Date date, long now) {
+        Duration duration = Utils.PRETTY_TIME.approximateDuration(date);
+        long step = Math.max(duration.getUnit().getMillisPerUnit() / 2, MIN_DELAY);
+        long elapsed = Math.abs(now - date.getTime());
+        long delay = (elapsed / step + 1) * step - elapsed;
+        return now + Math.min(Math.max(delay, MIN_DELAY), MAX_DELAY);
+    }
+}
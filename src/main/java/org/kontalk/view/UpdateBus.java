@@ -0,0 +1,108 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.view;
+
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Set;
+
+/**
+ * Coalescing event bus between model notifications and view components.
+ *
+ * Model objects notify their observers synchronously on whatever thread
+ * changed them. Instead of scheduling one EDT task for each notification,
+ * view observers post the update here and return immediately. All updates
+ * for one receiver and one source object are merged and delivered at most
+ * once per frame on the EDT.
+ */
+final class UpdateBus {
+
+    /** Delivery interval in milliseconds, about one frame. */
+    private static final int FRAME_DELAY = 16;
+
+    /** A view component receiving coalesced model updates. */
+    interface Receiver {
+        /**
+         * Handle all updates posted for one source object since the last
+         * frame. Called on EDT.
+         * @param source the changed object, can be null
+         * @param args all distinct notification arguments in posting order,
+         * can contain null
+         */
+        void updateOnEDT(Observable source, Set<Object> args);
+    }
+
+    // receiver -> (source -> arguments); guarded by this
+    private final Map<Receiver, Map<Observable, Set<Object>>> mPending =
+            new LinkedHashMap<>();
+
+    private final Timer mTimer;
+
+    UpdateBus() {
+        mTimer = new Timer(FRAME_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                UpdateBus.this.deliver();
+            }
+        });
+        mTimer.setRepeats(false);
+        mTimer.setCoalesce(true);
+    }
+
+    /** Post an update. Can be called from any thread, never blocks. */
+    void post(Receiver receiver, Observable source, Object arg) {
+        synchronized (this) {
+            Map<Observable, Set<Object>> sources = mPending.get(receiver);
+            if (sources == null) {
+                sources = new LinkedHashMap<>();
+                mPending.put(receiver, sources);
+            }
+            Set<Object> args = sources.get(source);
+            if (args == null) {
+                args = new LinkedHashSet<>();
+                sources.put(source, args);
+            }
+            args.add(arg);
+        }
+
+        if (!mTimer.isRunning())
+            mTimer.start();
+    }
+
+    private void deliver() {
+        Map<Receiver, Map<Observable, Set<Object>>> pending;
+        synchronized (this) {
+            if (mPending.isEmpty())
+                return;
+            pending = new LinkedHashMap<>(mPending);
+            mPending.clear();
+        }
+
+        for (Map.Entry<Receiver, Map<Observable, Set<Object>>> e : pending.entrySet()) {
+            Receiver receiver = e.getKey();
+            for (Map.Entry<Observable, Set<Object>> s : e.getValue().entrySet())
+                receiver.updateOnEDT(s.getKey(), s.getValue());
+        }
+    }
+}
@@ -42,6 +42,7 @@ import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -259,6 +260,16 @@ final class Utils {
     }
 
     static String mainStatus(Contact c, boolean withLabel) {
+        String status = fixedStatus(c);
+        return status.isEmpty() ? lastSeen(c, withLabel, true) : status;
+    }
+
+    /** The date shown as relative time in the main status, if any. */
+    static Optional<Date> mainStatusTime(Contact c) {
+        return fixedStatus(c).isEmpty() ? c.getLastSeen() : Optional.empty();
+    }
+
+    private static String fixedStatus(Contact c) {
         Contact.Subscription subStatus = c.getSubScription();
         return c.isMe() ? Tr.tr("Myself") :
                     c.isBlocked() ? Tr.tr("Blocked") :
@@ -266,7 +277,7 @@ final class Utils {
                     c.getOnline() == Contact.Online.ERROR ? Tr.tr("Not reachable") :
                     subStatus == Contact.Subscription.UNSUBSCRIBED ? Tr.tr("Not authorized") :
                     subStatus == Contact.Subscription.PENDING ? Tr.tr("Waiting for authorization") :
-                    lastSeen(c, withLabel, true);
+                    "";
     }
 
     static String lastSeen(Contact contact, boolean withLabel, boolean pretty) {
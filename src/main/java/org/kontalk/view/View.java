@@ -44,6 +44,7 @@ import com.alee.laf.optionpane.WebOptionPane;
 import com.alee.laf.panel.WebPanel;
 import com.alee.laf.rootpane.WebDialog;
 import com.alee.laf.text.WebPasswordField;
+import org.apache.commons.io.FileUtils;
 import org.kontalk.client.FeatureDiscovery;
 import org.kontalk.misc.JID;
 import org.kontalk.misc.ViewEvent;
@@ -109,12 +110,16 @@ public final class View implements Observer {
     static final int CHAT_BG_ALPHA = 30;
 
     static final int AVATAR_LIST_SIZE = 30;
+    /** Number of list rows to load avatars for in advance. */
+    static final int PREWARM_ROWS = 30;
     static final int AVATAR_CHAT_SIZE = 40;
     static final int AVATAR_DETAIL_SIZE = 60;
     static final int AVATAR_PROFILE_SIZE = 150;
 
     private final ViewControl mControl;
     private final Model mModel;
+    private final UpdateBus mUpdateBus;
+    private final UIClock mUIClock;
 
     private final TrayManager mTrayManager;
     private final Notifier mNotifier;
@@ -134,6 +139,8 @@ public final class View implements Observer {
     private View(ViewControl control, Model model) {
         mControl = control;
         mModel = model;
+        mUpdateBus = new UpdateBus();
+        mUIClock = new UIClock();
 
         WebLookAndFeel.install();
         ToolTipManager.sharedInstance().setInitialDelay(200);
@@ -176,6 +183,7 @@ public final class View implements Observer {
         mModel.chats().addObserver(mTrayManager);
 
         this.setHotkeys();
+        EDTWatchdog.start();
 
         this.statusChanged(Control.Status.DISCONNECTED, EnumSet.noneOf(FeatureDiscovery.Feature.class));
 
@@ -280,6 +288,8 @@ public final class View implements Observer {
             mNotifier.showPresenceError(presenceError.contact, presenceError.error);
         } else if (arg instanceof ViewEvent.SubscriptionRequest) {
             mNotifier.confirmSubscription((ViewEvent.SubscriptionRequest) arg);
+        } else if (arg instanceof ViewEvent.TransferProgress) {
+            this.showTransferProgress((ViewEvent.TransferProgress) arg);
         } else if (arg instanceof ViewEvent.RetryTimerMessage) {
             mStatusBarLabel.setText(
                     String.format(Tr.tr("Connection failure. Retry in %1$d seconds."),
@@ -289,6 +299,23 @@ public final class View implements Observer {
         }
     }
 
+    private void showTransferProgress(ViewEvent.TransferProgress progress) {
+        if (progress.isFinished()) {
+            mStatusBarLabel.setText(Tr.tr("Download finished"));
+            return;
+        }
+
+        String text = Tr.tr("Downloading…") + " " +
+                FileUtils.byteCountToDisplaySize(progress.transferred);
+        if (progress.total > 0)
+            text += " / " + FileUtils.byteCountToDisplaySize(progress.total);
+        text += " (" + FileUtils.byteCountToDisplaySize(progress.bytesPerSecond) + "/s";
+        if (progress.etaSeconds >= 0)
+            text += ", " + String.format(Tr.tr("%1$d seconds left"), progress.etaSeconds);
+        text += ")";
+        mStatusBarLabel.setText(text);
+    }
+
     private void statusChanged(Control.Status status, EnumSet<FeatureDiscovery.Feature> features) {
         mCurrentStatus = status;
         mServerFeatures = features;
@@ -378,6 +405,14 @@ public final class View implements Observer {
 
     /* view internal */
 
+    UpdateBus updateBus() {
+        return mUpdateBus;
+    }
+
+    UIClock uiClock() {
+        return mUIClock;
+    }
+
     void showChat(Contact contact) {
         this.showChat(mControl.getOrCreateSingleChat(contact));
     }
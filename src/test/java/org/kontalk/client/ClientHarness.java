@@ -0,0 +1,40 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.client;
+
+import org.jivesoftware.smack.StanzaListener;
+import org.kontalk.system.Control;
+
+/**
+ * Access to the packet listeners of the client, for feeding stanzas from a
+ * test connection into the application.
+ */
+public final class ClientHarness {
+
+    private ClientHarness() {}
+
+    /**
+     * The listener for incoming message stanzas, passing them to the
+     * control. Avatar events are not handled.
+     */
+    public static StanzaListener messageListener(Client client, Control control) {
+        return new KonMessageListener(client, control, null);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Date;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.bcpg.sig.KeyFlags;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPKeyRingGenerator;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketVector;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.bc.BcPBESecretKeyEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider;
+import org.bouncycastle.openpgp.operator.bc.BcPGPKeyPair;
+import org.kontalk.util.CPIMMessage;
+
+/**
+ * Generated key rings for tests and benchmarks, and encrypted messages as
+ * another client would send them.
+ */
+public final class TestKeys {
+
+    /** Secret and public key ring data of one generated key. */
+    public static final class KeyRing {
+        public final byte[] secretRing;
+        public final byte[] publicRing;
+        public final char[] passphrase;
+
+        private KeyRing(byte[] secretRing, byte[] publicRing, char[] passphrase) {
+            this.secretRing = secretRing;
+            this.publicRing = publicRing;
+            this.passphrase = passphrase;
+        }
+
+        public PersonalKey load() throws Exception {
+            PGPUtils.registerProvider();
+            return PersonalKey.load(secretRing, passphrase);
+        }
+    }
+
+    private TestKeys() {}
+
+    /**
+     * Key ring with the same layout as the one created by the server:
+     * master key for authentication, sub keys for signing and encryption.
+     * @param uid user ID, e.g. "Name <local@domain>"
+     */
+    public static KeyRing create(String uid, char[] passphrase) throws PGPException, IOException {
+        return create(uid, passphrase, 2048);
+    }
+
+    /**
+     * Key ring with RSA keys of the given size, smaller keys are faster to
+     * generate for tests that need many of them.
+     */
+    public static KeyRing create(String uid, char[] passphrase, int strength)
+            throws PGPException, IOException {
+        RSAKeyPairGenerator keyGen = new RSAKeyPairGenerator();
+        keyGen.init(new RSAKeyGenerationParameters(BigInteger.valueOf(0x10001),
+                new SecureRandom(), strength, 12));
+        Date now = new Date();
+        PGPKeyPair authKey = new BcPGPKeyPair(PublicKeyAlgorithmTags.RSA_GENERAL,
+                keyGen.generateKeyPair(), now);
+        PGPKeyPair signKey = new BcPGPKeyPair(PublicKeyAlgorithmTags.RSA_GENERAL,
+                keyGen.generateKeyPair(), now);
+        PGPKeyPair encryptKey = new BcPGPKeyPair(PublicKeyAlgorithmTags.RSA_GENERAL,
+                keyGen.generateKeyPair(), now);
+
+        PGPDigestCalculator sha1Calc = new BcPGPDigestCalculatorProvider()
+                .get(HashAlgorithmTags.SHA1);
+        PGPKeyRingGenerator ringGen = new PGPKeyRingGenerator(
+                PGPSignature.POSITIVE_CERTIFICATION,
+                authKey,
+                uid,
+                sha1Calc,
+                keyFlags(KeyFlags.CERTIFY_OTHER | KeyFlags.AUTHENTICATION),
+                null,
+                new BcPGPContentSignerBuilder(PublicKeyAlgorithmTags.RSA_GENERAL,
+                        HashAlgorithmTags.SHA256),
+                new BcPBESecretKeyEncryptorBuilder(SymmetricKeyAlgorithmTags.AES_256,
+                        sha1Calc).build(passphrase));
+        ringGen.addSubKey(signKey, keyFlags(KeyFlags.SIGN_DATA), null);
+        ringGen.addSubKey(encryptKey,
+                keyFlags(KeyFlags.ENCRYPT_COMMS | KeyFlags.ENCRYPT_STORAGE), null);
+
+        return new KeyRing(ringGen.generateSecretKeyRing().getEncoded(),
+                ringGen.generatePublicKeyRing().getEncoded(),
+                passphrase);
+    }
+
+    /**
+     * Encrypted and signed text message, like the content of the 'e2e'
+     * extension sent by other clients.
+     */
+    public static byte[] encryptText(PersonalKey senderKey, byte[] receiverPublicRing,
+            String text) throws IOException, PGPException {
+        PGPUtils.PGPCoderKey receiverKey = PGPUtils.readPublicKey(receiverPublicRing)
+                .orElseThrow(() -> new PGPException("can't read public key"));
+
+        CPIMMessage cpim = new CPIMMessage(senderKey.getUserId(),
+                new String[]{receiverKey.userID}, new Date(), "text/plain", text);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Encryptor.encryptAndSign(new ByteArrayInputStream(cpim.toByteArray()), out,
+                senderKey, Collections.singletonList(receiverKey));
+        return out.toByteArray();
+    }
+
+    private static PGPSignatureSubpacketVector keyFlags(int flags) {
+        PGPSignatureSubpacketGenerator gen = new PGPSignatureSubpacketGenerator();
+        gen.setKeyFlags(false, flags);
+        return gen.generate();
+    }
+}
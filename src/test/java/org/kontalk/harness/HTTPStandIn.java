@@ -0,0 +1,193 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.harness;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * HTTPS upload and download stand-in for the file server used with HTTP
+ * File Upload (XEP-0363). Files are kept in memory. The server uses a
+ * self-signed certificate, clients must not validate it.
+ *
+ * PUT /files/[name] stores a file, GET /files/[name] returns it.
+ */
+public final class HTTPStandIn implements AutoCloseable {
+
+    private static final String PATH = "/files/";
+
+    private final HttpsServer mServer;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(4);
+    private final Map<String, byte[]> mFiles = new ConcurrentHashMap<>();
+    private final AtomicLong mBytesIn = new AtomicLong();
+    private final AtomicLong mBytesOut = new AtomicLong();
+
+    public HTTPStandIn() throws IOException, GeneralSecurityException {
+        mServer = HttpsServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+        mServer.setHttpsConfigurator(new HttpsConfigurator(sslContext()));
+        mServer.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                HTTPStandIn.this.handle(exchange);
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    /** URL for uploading and downloading a file. */
+    public URI url(String name) {
+        InetSocketAddress address = mServer.getAddress();
+        // host name of the certificate
+        return URI.create("https://localhost:" + address.getPort()
+                + PATH + name);
+    }
+
+    public int fileCount() {
+        return mFiles.size();
+    }
+
+    public long bytesIn() {
+        return mBytesIn.get();
+    }
+
+    public long bytesOut() {
+        return mBytesOut.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String name = exchange.getRequestURI().getPath().substring(PATH.length());
+        try {
+            switch (exchange.getRequestMethod()) {
+                case "PUT":
+                    byte[] data = IOUtils.toByteArray(exchange.getRequestBody());
+                    mFiles.put(name, data);
+                    mBytesIn.addAndGet(data.length);
+                    exchange.sendResponseHeaders(200, -1);
+                    break;
+                case "GET":
+                    byte[] file = mFiles.get(name);
+                    if (file == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                        break;
+                    }
+                    exchange.getResponseHeaders().add("Content-Disposition",
+                            "attachment; filename=\"" + name + "\"");
+                    exchange.sendResponseHeaders(200, file.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(file);
+                    }
+                    mBytesOut.addAndGet(file.length);
+                    break;
+                default:
+                    exchange.sendResponseHeaders(405, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * TLS context with a new self-signed certificate for "localhost". Client
+     * certificates are accepted without validation.
+     */
+    static SSLContext sslContext() throws GeneralSecurityException, IOException {
+        // EC: RSA-PSS signatures of the bundled Bouncy Castle provider fail in
+        // TLS 1.3 handshakes
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+        keyGen.initialize(256);
+        KeyPair keyPair = keyGen.generateKeyPair();
+
+        X500Name name = new X500Name("CN=localhost");
+        Date now = new Date();
+        X509Certificate cert;
+        try {
+            cert = new JcaX509CertificateConverter().getCertificate(
+                    new JcaX509v3CertificateBuilder(name,
+                            BigInteger.valueOf(now.getTime()),
+                            now,
+                            new Date(now.getTime() + 24 * 60 * 60 * 1000L),
+                            name,
+                            keyPair.getPublic())
+                    .build(new JcaContentSignerBuilder("SHA256withECDSA")
+                            .build(keyPair.getPrivate())));
+        } catch (OperatorCreationException ex) {
+            throw new GeneralSecurityException(ex);
+        }
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("server", keyPair.getPrivate(), new char[0],
+                new Certificate[]{cert});
+        KeyManagerFactory kmFactory = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        kmFactory.init(keyStore, new char[0]);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmFactory.getKeyManagers(), new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return context;
+    }
+
+    @Override
+    public void close() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+}
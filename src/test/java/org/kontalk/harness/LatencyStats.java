@@ -0,0 +1,83 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.harness;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects latencies of one scenario and reports throughput and
+ * percentiles.
+ *
+ * Thread-safe.
+ */
+public final class LatencyStats {
+
+    private final String mName;
+    // guarded by this
+    private long[] mSamples = new long[1024];
+    private int mCount = 0;
+    private long mStart = 0;
+    private long mEnd = 0;
+
+    public LatencyStats(String name) {
+        mName = name;
+    }
+
+    public synchronized void start() {
+        mStart = System.nanoTime();
+    }
+
+    public synchronized void stop() {
+        mEnd = System.nanoTime();
+    }
+
+    /** Add one latency, in nanoseconds. */
+    public synchronized void add(long nanos) {
+        if (mCount == mSamples.length)
+            mSamples = Arrays.copyOf(mSamples, mCount * 2);
+        mSamples[mCount++] = nanos;
+    }
+
+    public synchronized int count() {
+        return mCount;
+    }
+
+    /** Percentile in milliseconds, 0 < p <= 100. */
+    public synchronized double percentile(double p) {
+        if (mCount == 0)
+            return 0;
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p / 100 * mCount) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    /** Operations per second between start and stop. */
+    public synchronized double throughput() {
+        long duration = mEnd - mStart;
+        return duration > 0 ? mCount / (duration / (double) TimeUnit.SECONDS.toNanos(1)) : 0;
+    }
+
+    public String report() {
+        return String.format("%s: n=%d, %.1f/s, p50=%.2fms, p90=%.2fms, p99=%.2fms, max=%.2fms",
+                mName, this.count(), this.throughput(),
+                this.percentile(50), this.percentile(90), this.percentile(99),
+                this.percentile(100));
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.harness;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jivesoftware.smack.SASLAuthentication;
+import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.roster.Roster;
+import org.jivesoftware.smack.roster.RosterEntry;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kontalk.client.ClientHarness;
+import org.kontalk.client.E2EEncryption;
+import org.kontalk.client.HTTPFileClient;
+import org.kontalk.crypto.Coder;
+import org.kontalk.crypto.PersonalKey;
+import org.kontalk.crypto.TestKeys;
+import org.kontalk.misc.JID;
+import org.kontalk.model.Contact;
+import org.kontalk.model.chat.GroupChat;
+import org.kontalk.model.message.CoderStatus;
+import org.kontalk.model.message.KonMessage;
+import org.kontalk.system.Control;
+import org.kontalk.system.ControlHarness;
+import org.kontalk.system.MessageHandler;
+import org.kontalk.util.ClientUtils;
+import org.kontalk.util.EncodingUtils;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End-to-end load scenarios against local stand-in servers. Each scenario
+ * prints throughput and latency percentiles.
+ *
+ * Incoming stanzas are passed through the message listener of the client
+ * into a headless application with a real account key and database.
+ * Application state is process-wide, all scenarios share one instance.
+ *
+ * Not run by default, enable with -Dkontalk.loadtest=true
+ */
+public class LoadScenariosTest {
+    @ClassRule
+    public static TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
+    private static final int BACKLOG_SIZE = 10000;
+    private static final int SENDERS = 4;
+    private static final int HANDLER_WORKERS = 4;
+    private static final int ROSTER_SIZE = 500;
+    private static final int GROUP_SIZE = 100;
+    private static final int GROUP_MESSAGES = 50;
+    // a key ring for each group member
+    private static final int MEMBER_KEY_SIZE = 1024;
+    private static final int HTTP_FILES = 200;
+    private static final int HTTP_FILE_SIZE = 64 * 1024;
+
+    private static final char[] PASSPHRASE = "loadtest".toCharArray();
+
+    private static final long TIMEOUT = 60; // seconds
+    // decryption of every message
+    private static final long BACKLOG_TIMEOUT = 300; // seconds
+
+    // receives messages handled by the application
+    private static final AtomicReference<MessageHandler> HANDLER =
+            new AtomicReference<>(message -> {});
+
+    private static Path APP_DIR;
+    private static TestKeys.KeyRing USER_RING;
+    private static PersonalKey USER_KEY;
+    private static PersonalKey[] SENDER_KEYS;
+    private static Control CONTROL;
+
+    private XMPPStandIn mServer;
+    private XMPPTCPConnection mConn;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("kontalk.loadtest"));
+
+        APP_DIR = TEMP_FOLDER.newFolder("app_dir").toPath();
+        USER_RING = TestKeys.create("Load Test <user@" + XMPPStandIn.DOMAIN + ">", PASSPHRASE);
+        USER_KEY = USER_RING.load();
+
+        CONTROL = ControlHarness.launchHeadless(APP_DIR,
+                message -> HANDLER.get().onMessage(message),
+                HANDLER_WORKERS,
+                USER_RING.secretRing, PASSPHRASE);
+
+        SENDER_KEYS = new PersonalKey[SENDERS];
+        for (int i = 0; i < SENDERS; i++) {
+            JID jid = JID.bare(sender(i));
+            TestKeys.KeyRing ring = TestKeys.create("Sender " + i + " <" + jid.string() + ">",
+                    PASSPHRASE);
+            SENDER_KEYS[i] = ring.load();
+            ControlHarness.addContact(CONTROL, jid, ring.publicRing);
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (CONTROL != null)
+            CONTROL.shutDown(false);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new XMPPStandIn();
+        HANDLER.set(message -> {});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mConn != null)
+            mConn.disconnect();
+        mServer.close();
+    }
+
+    /**
+     * Offline backlog: many encrypted messages pushed right after login,
+     * handled like incoming messages of the client: parsed, decrypted,
+     * saved to the database and passed to the headless message handler.
+     */
+    @Test
+    public void testOfflineBacklog() throws Exception {
+        // one encrypted text for each sender, the messages differ in their ID
+        Map<String, String> e2e = new HashMap<>();
+        for (int i = 0; i < SENDERS; i++) {
+            byte[] encrypted = TestKeys.encryptText(SENDER_KEYS[i], USER_RING.publicRing,
+                    "backlog message from sender " + i);
+            e2e.put(sender(i), "<e2e xmlns='" + E2EEncryption.NAMESPACE + "'>"
+                    + EncodingUtils.bytesToBase64(encrypted) + "</e2e>");
+        }
+
+        mServer.setScript(new XMPPStandIn.Script() {
+            @Override
+            public void onReady(XMPPStandIn.Session session) {
+                for (int i = 0; i < BACKLOG_SIZE; i++) {
+                    String from = sender(i % SENDERS);
+                    session.sendMessage(from, i + "-" + System.nanoTime(), e2e.get(from));
+                }
+            }
+        });
+
+        LatencyStats stats = new LatencyStats("offline backlog");
+        CountDownLatch done = new CountDownLatch(BACKLOG_SIZE);
+        AtomicInteger failed = new AtomicInteger();
+        HANDLER.set(message -> {
+            CoderStatus status = message.getCoderStatus();
+            if (status.getEncryption() != Coder.Encryption.DECRYPTED ||
+                    status.getSigning() != Coder.Signing.VERIFIED ||
+                    !status.getErrors().isEmpty())
+                failed.incrementAndGet();
+            stats.add(System.nanoTime() - sentTime(message.getXMPPID()));
+            done.countDown();
+        });
+        mConn = this.createConnection();
+        mConn.addAsyncStanzaListener(ClientHarness.messageListener(
+                ControlHarness.client(CONTROL), CONTROL),
+                new StanzaTypeFilter(Message.class));
+
+        stats.start();
+        mConn.connect();
+        mConn.login("user", "pass");
+        assertTrue(done.await(BACKLOG_TIMEOUT, TimeUnit.SECONDS));
+        stats.stop();
+
+        System.out.println(stats.report());
+        assertEquals(BACKLOG_SIZE, stats.count());
+        assertEquals(0, failed.get());
+    }
+
+    /**
+     * Roster sync of many contacts at login, applied to the contacts of the
+     * application.
+     */
+    @Test
+    public void testRosterSync() throws Exception {
+        Map<String, String> roster = new HashMap<>();
+        for (int i = 0; i < ROSTER_SIZE; i++)
+            roster.put("contact" + i + "@" + XMPPStandIn.DOMAIN, "Contact " + i);
+        // keep senders of other scenarios
+        for (int i = 0; i < SENDERS; i++)
+            roster.put(sender(i), "Sender " + i);
+        mServer.setRoster(roster);
+
+        LatencyStats stats = new LatencyStats("roster sync");
+        mConn = this.createConnection();
+        Roster smackRoster = Roster.getInstanceFor(mConn);
+
+        stats.start();
+        long start = System.nanoTime();
+        mConn.connect();
+        mConn.login("user", "pass");
+        smackRoster.reloadAndWait();
+        List<ClientUtils.KonRosterEntry> entries = new ArrayList<>();
+        for (RosterEntry entry : smackRoster.getEntries()) {
+            entries.add(new ClientUtils.KonRosterEntry(JID.bare(entry.getUser()),
+                    entry.getName(), entry.getType(), entry.getStatus()));
+        }
+        CONTROL.getRosterHandler().onLoaded(entries);
+        stats.add(System.nanoTime() - start);
+        stats.stop();
+
+        System.out.println(stats.report() + ", entries: " + entries.size());
+        assertEquals(roster.size(), entries.size());
+    }
+
+    /**
+     * Group fan-out: text messages to a group chat, created, encrypted for
+     * every member and sent by the client of the application, one stanza
+     * for each member. Latency is measured until the last copy of a message
+     * arrived at the server.
+     */
+    @Test
+    public void testGroupFanOut() throws Exception {
+        Map<String, String> roster = new HashMap<>();
+        for (int i = 0; i < SENDERS; i++)
+            roster.put(sender(i), JID.bare(sender(i)).local());
+        List<Contact> members = new ArrayList<>();
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            JID jid = JID.bare("member" + i + "@" + XMPPStandIn.DOMAIN);
+            TestKeys.KeyRing ring = TestKeys.create("Member " + i + " <" + jid.string() + ">",
+                    PASSPHRASE, MEMBER_KEY_SIZE);
+            Contact contact = ControlHarness.addContact(CONTROL, jid, ring.publicRing);
+            contact.setEncrypted(true);
+            members.add(contact);
+            roster.put(jid.string(), jid.local());
+        }
+
+        // the client of the application requires TLS
+        mServer.close();
+        mServer = new XMPPStandIn(true);
+        mServer.setRoster(roster);
+
+        CountDownLatch ready = new CountDownLatch(1);
+        // XMPP ID -> copies received
+        Map<String, AtomicInteger> copies = new ConcurrentHashMap<>();
+        // XMPP ID -> time when the last copy was received
+        Map<String, Long> arrived = new ConcurrentHashMap<>();
+        Semaphore completed = new Semaphore(0);
+        AtomicInteger plain = new AtomicInteger();
+        mServer.setScript(new XMPPStandIn.Script() {
+            @Override
+            public void onReady(XMPPStandIn.Session session) {
+                ready.countDown();
+            }
+            @Override
+            public void onMessage(XMPPStandIn.Session session, XMPPStandIn.Element message) {
+                if (message.child(E2EEncryption.ELEMENT_NAME) == null)
+                    plain.incrementAndGet();
+                String id = message.attr("id");
+                int count = copies.computeIfAbsent(id, k -> new AtomicInteger())
+                        .incrementAndGet();
+                if (count == GROUP_SIZE) {
+                    arrived.put(id, System.nanoTime());
+                    completed.release();
+                }
+            }
+        });
+
+        ControlHarness.connect(CONTROL, XMPPStandIn.DOMAIN, mServer.port());
+        try {
+            assertTrue(ready.await(TIMEOUT, TimeUnit.SECONDS));
+
+            GroupChat chat = ControlHarness.createGroupChat(CONTROL, members, "load test")
+                    .orElseThrow(() -> new AssertionError("can't create group chat"));
+            // group create command
+            assertTrue(completed.tryAcquire(TIMEOUT, TimeUnit.SECONDS));
+
+            LatencyStats stats = new LatencyStats("group fan-out");
+            Map<String, Long> sent = new HashMap<>();
+            stats.start();
+            for (int i = 0; i < GROUP_MESSAGES; i++) {
+                long start = System.nanoTime();
+                ControlHarness.sendText(CONTROL, chat, "group message " + i);
+                KonMessage message = chat.getMessages().getLast()
+                        .orElseThrow(() -> new AssertionError("message not created"));
+                sent.put(message.getXMPPID(), start);
+            }
+            assertTrue(completed.tryAcquire(GROUP_MESSAGES, TIMEOUT, TimeUnit.SECONDS));
+            stats.stop();
+
+            for (Map.Entry<String, Long> e : sent.entrySet())
+                stats.add(arrived.get(e.getKey()) - e.getValue());
+
+            System.out.println(stats.report());
+            assertEquals(GROUP_MESSAGES, stats.count());
+            assertEquals(0, plain.get());
+        } finally {
+            ControlHarness.disconnect(CONTROL);
+        }
+    }
+
+    /**
+     * Upload and download of attachment files with the file client of the
+     * application, using the account certificate over TLS.
+     */
+    @Test
+    public void testHTTPTransfer() throws Exception {
+        byte[] data = new byte[HTTP_FILE_SIZE];
+        new Random(42).nextBytes(data);
+        Path file = TEMP_FOLDER.newFile("upload.dat").toPath();
+        Files.write(file, data);
+        Path downloadDir = TEMP_FOLDER.newFolder("downloads").toPath();
+
+        HTTPFileClient client = new HTTPFileClient(USER_KEY.getServerLoginKey(),
+                USER_KEY.getBridgeCertificate(),
+                // self-signed stand-in certificate
+                false);
+        HTTPFileClient.ProgressListener listener = new HTTPFileClient.ProgressListener() {
+            @Override
+            public void updateProgress(int percent) {
+            }
+            @Override
+            public void updateBytes(long transferred, long total) {
+            }
+            @Override
+            public void finished(long transferred) {
+            }
+        };
+
+        try (HTTPStandIn http = new HTTPStandIn()) {
+            LatencyStats upload = new LatencyStats("http upload");
+            upload.start();
+            for (int i = 0; i < HTTP_FILES; i++) {
+                long start = System.nanoTime();
+                client.upload(file.toFile(), http.url("file" + i),
+                        "application/octet-stream", false);
+                upload.add(System.nanoTime() - start);
+            }
+            upload.stop();
+
+            LatencyStats download = new LatencyStats("http download");
+            download.start();
+            for (int i = 0; i < HTTP_FILES; i++) {
+                long start = System.nanoTime();
+                Path downloaded = client.download(http.url("file" + i), downloadDir,
+                        listener, false);
+                download.add(System.nanoTime() - start);
+                assertEquals(data.length, Files.size(downloaded));
+                Files.delete(downloaded);
+            }
+            download.stop();
+
+            System.out.println(upload.report());
+            System.out.println(download.report());
+            assertEquals(HTTP_FILES, http.fileCount());
+            assertEquals((long) HTTP_FILES * data.length, http.bytesIn());
+        }
+    }
+
+    private XMPPTCPConnection createConnection() {
+        // blacklisted by every connection of the client
+        SASLAuthentication.unBlacklistSASLMechanism("PLAIN");
+        XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
+                .setHost("127.0.0.1")
+                .setPort(mServer.port())
+                .setServiceName(XMPPStandIn.DOMAIN)
+                .setSecurityMode(SecurityMode.disabled)
+                .setResource("test")
+                .build();
+        return new XMPPTCPConnection(config);
+    }
+
+    private static String sender(int i) {
+        return "sender" + i + "@" + XMPPStandIn.DOMAIN;
+    }
+
+    private static long sentTime(String stanzaID) {
+        return Long.parseLong(stanzaID.substring(stanzaID.indexOf('-') + 1));
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.kontalk.harness;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmConstraints;
+import java.security.AlgorithmParameters;
+import java.security.CryptoPrimitive;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Scriptable XMPP server stand-in for tests.
+ *
+ * Speaks just enough XMPP for a Smack connection: SASL PLAIN without TLS,
+ * or STARTTLS with SASL EXTERNAL (any credentials, any client certificate),
+ * resource binding, roster and a hook for everything else. Not a real
+ * server, stanzas are not routed between sessions.
+ */
+public final class XMPPStandIn implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(XMPPStandIn.class.getName());
+
+    public static final String DOMAIN = "localhost";
+
+    private static final String NS_TLS = "urn:ietf:params:xml:ns:xmpp-tls";
+    private static final String NS_SASL = "urn:ietf:params:xml:ns:xmpp-sasl";
+    private static final String NS_BIND = "urn:ietf:params:xml:ns:xmpp-bind";
+    private static final String NS_SESSION = "urn:ietf:params:xml:ns:xmpp-session";
+    private static final String NS_ROSTER = "jabber:iq:roster";
+
+    /** Minimal parsed XML element of a received stanza. */
+    public static final class Element {
+        public final String name;
+        public final String namespace;
+        public final Map<String, String> attributes;
+        public final List<Element> children;
+        public final String text;
+
+        private Element(String name, String namespace, Map<String, String> attributes,
+                List<Element> children, String text) {
+            this.name = name;
+            this.namespace = namespace;
+            this.attributes = attributes;
+            this.children = children;
+            this.text = text;
+        }
+
+        public String attr(String name) {
+            String value = attributes.get(name);
+            return value != null ? value : "";
+        }
+
+        /** First child with this name, or null. */
+        public Element child(String name) {
+            for (Element c : children)
+                if (c.name.equals(name))
+                    return c;
+            return null;
+        }
+
+        /** Namespace of first child, empty if none. */
+        public String childNamespace() {
+            return children.isEmpty() ? "" : children.get(0).namespace;
+        }
+
+        private static Element read(XmlPullParser parser)
+                throws XmlPullParserException, IOException {
+            String name = parser.getName();
+            String namespace = parser.getNamespace();
+            Map<String, String> attributes = new HashMap<>();
+            for (int i = 0; i < parser.getAttributeCount(); i++)
+                attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+
+            List<Element> children = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            while (true) {
+                int event = parser.next();
+                if (event == XmlPullParser.START_TAG) {
+                    children.add(read(parser));
+                } else if (event == XmlPullParser.TEXT) {
+                    text.append(parser.getText());
+                } else if (event == XmlPullParser.END_TAG ||
+                        event == XmlPullParser.END_DOCUMENT) {
+                    break;
+                }
+            }
+            return new Element(name, namespace, attributes, children, text.toString());
+        }
+    }
+
+    // without TLS a session starts SECURED
+    private enum Stage {NEW, SECURED, AUTHENTICATED, CLOSED}
+
+    /** Script for server behaviour, all methods are optional. */
+    public interface Script {
+        /** The client is logged in and sent initial presence. */
+        default void onReady(Session session) {}
+        /** A message was received. */
+        default void onMessage(Session session, Element message) {}
+        /**
+         * An IQ not handled by the stand-in was received.
+         * @return true if the IQ was answered
+         */
+        default boolean onIQ(Session session, Element iq) { return false; }
+    }
+
+    /** One client connection. */
+    public final class Session implements Runnable {
+        private final Object mSendLock = new Object();
+        private final String mID;
+        // replaced after TLS negotiation
+        private volatile Socket mSocket;
+        private Writer mWriter;
+        private String mJID = "";
+        private boolean mReady = false;
+
+        private Session(Socket socket) throws IOException {
+            mSocket = socket;
+            mWriter = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            mID = "standin" + mSessionCount.incrementAndGet();
+        }
+
+        /** Full JID of the bound client. */
+        public String jid() {
+            return mJID;
+        }
+
+        /** Send raw XML to the client. Thread-safe. */
+        public void send(String xml) {
+            synchronized (mSendLock) {
+                try {
+                    mWriter.write(xml);
+                    mWriter.flush();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "can't send", ex);
+                }
+            }
+        }
+
+        /** Send a chat message to the client. */
+        public void sendMessage(String from, String id, String innerXML) {
+            this.send("<message type='chat' from='" + escape(from) + "' to='" + escape(mJID)
+                    + "' id='" + escape(id) + "'>" + innerXML + "</message>");
+        }
+
+        @Override
+        public void run() {
+            try {
+                Stage stage = mSSLContext != null ? Stage.NEW : Stage.SECURED;
+                while (stage != Stage.CLOSED) {
+                    // stream restart after TLS negotiation and authentication
+                    stage = this.openStream(stage);
+                }
+            } catch (IOException | XmlPullParserException ex) {
+                if (!(ex instanceof SocketException))
+                    LOGGER.log(Level.WARNING, "session failed", ex);
+            } finally {
+                mSessions.remove(this);
+                try {
+                    mSocket.close();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "can't close socket", ex);
+                }
+            }
+        }
+
+        /** @return the stage of the restarted stream, or CLOSED */
+        private Stage openStream(Stage stage) throws IOException, XmlPullParserException {
+            Reader reader = new InputStreamReader(mSocket.getInputStream(),
+                    StandardCharsets.UTF_8);
+            XmlPullParser parser = PacketParserUtils.newXmppParser(reader);
+            // wait for stream header
+            int event;
+            do {
+                event = parser.next();
+            } while (event != XmlPullParser.START_TAG && event != XmlPullParser.END_DOCUMENT);
+            if (event == XmlPullParser.END_DOCUMENT)
+                return Stage.CLOSED;
+
+            this.send("<?xml version='1.0'?><stream:stream xmlns='jabber:client' "
+                    + "xmlns:stream='http://etherx.jabber.org/streams' id='" + mID
+                    + "' from='" + DOMAIN + "' version='1.0'>");
+            switch (stage) {
+                case NEW:
+                    this.send("<stream:features><starttls xmlns='" + NS_TLS + "'>"
+                            + "<required/></starttls></stream:features>");
+                    break;
+                case SECURED:
+                    this.send("<stream:features><mechanisms xmlns='" + NS_SASL + "'>"
+                            + "<mechanism>" + (mSSLContext != null ? "EXTERNAL" : "PLAIN")
+                            + "</mechanism></mechanisms></stream:features>");
+                    break;
+                default:
+                    this.send("<stream:features><bind xmlns='" + NS_BIND + "'/>"
+                            + "<session xmlns='" + NS_SESSION + "'/></stream:features>");
+            }
+
+            while (true) {
+                event = parser.next();
+                if (event == XmlPullParser.END_DOCUMENT ||
+                        event == XmlPullParser.END_TAG && parser.getDepth() == 1) {
+                    this.send("</stream:stream>");
+                    return Stage.CLOSED;
+                }
+                if (event != XmlPullParser.START_TAG)
+                    continue;
+
+                Element element = Element.read(parser);
+                switch (element.name) {
+                    case "starttls":
+                        this.send("<proceed xmlns='" + NS_TLS + "'/>");
+                        this.startTLS();
+                        return Stage.SECURED;
+                    case "auth":
+                        this.send("<success xmlns='" + NS_SASL + "'/>");
+                        return Stage.AUTHENTICATED;
+                    case "iq":
+                        this.handleIQ(element);
+                        break;
+                    case "presence":
+                        if (!mReady && element.attr("to").isEmpty()) {
+                            mReady = true;
+                            mScript.onReady(this);
+                        }
+                        break;
+                    case "message":
+                        mReceivedMessages.incrementAndGet();
+                        mScript.onMessage(this, element);
+                        break;
+                    default:
+                        LOGGER.config("ignoring element: " + element.name);
+                }
+            }
+        }
+
+        private void startTLS() throws IOException {
+            SSLSocket socket = (SSLSocket) mSSLContext.getSocketFactory().createSocket(
+                    mSocket, DOMAIN, mSocket.getPort(), true);
+            socket.setUseClientMode(false);
+            // RSA-PSS signatures of the bundled Bouncy Castle provider fail,
+            // the client must sign with PKCS#1; TLS 1.3 allows only PSS
+            socket.setEnabledProtocols(new String[]{"TLSv1.2"});
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setAlgorithmConstraints(new AlgorithmConstraints() {
+                @Override
+                public boolean permits(Set<CryptoPrimitive> primitives, String algorithm,
+                        AlgorithmParameters parameters) {
+                    return !algorithm.toUpperCase().contains("PSS");
+                }
+                @Override
+                public boolean permits(Set<CryptoPrimitive> primitives, Key key) {
+                    return true;
+                }
+                @Override
+                public boolean permits(Set<CryptoPrimitive> primitives, String algorithm,
+                        Key key, AlgorithmParameters parameters) {
+                    return this.permits(primitives, algorithm, parameters);
+                }
+            });
+            parameters.setWantClientAuth(true);
+            socket.setSSLParameters(parameters);
+            socket.startHandshake();
+            synchronized (mSendLock) {
+                mSocket = socket;
+                mWriter = new OutputStreamWriter(socket.getOutputStream(),
+                        StandardCharsets.UTF_8);
+            }
+        }
+
+        private void handleIQ(Element iq) {
+            String id = escape(iq.attr("id"));
+            String type = iq.attr("type");
+            String ns = iq.childNamespace();
+            if (NS_BIND.equals(ns)) {
+                Element resource = iq.children.get(0).child("resource");
+                mJID = "user@" + DOMAIN + "/" +
+                        (resource != null && !resource.text.isEmpty() ? resource.text : mID);
+                this.send("<iq type='result' id='" + id + "'><bind xmlns='" + NS_BIND
+                        + "'><jid>" + escape(mJID) + "</jid></bind></iq>");
+            } else if (NS_SESSION.equals(ns)) {
+                this.send("<iq type='result' id='" + id + "'/>");
+            } else if (NS_ROSTER.equals(ns) && "get".equals(type)) {
+                this.send(rosterResult(id));
+            } else if ("result".equals(type) || "error".equals(type)) {
+                // response to our request
+            } else if (!mScript.onIQ(this, iq)) {
+                String from = iq.attr("to").isEmpty() ? DOMAIN : iq.attr("to");
+                // Smack drops replies not from the addressed entity
+                this.send("<iq type='error' id='" + id + "' from='" + escape(from)
+                        + "' to='" + escape(mJID) + "'>"
+                        + "<error type='cancel'><service-unavailable "
+                        + "xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'/></error></iq>");
+            }
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Thread mAcceptThread;
+    private final List<Session> mSessions = new CopyOnWriteArrayList<>();
+    private final AtomicInteger mSessionCount = new AtomicInteger();
+    private final AtomicInteger mReceivedMessages = new AtomicInteger();
+    // JID -> name
+    private final Map<String, String> mRoster = new ConcurrentHashMap<>();
+
+    private final SSLContext mSSLContext;
+
+    private volatile Script mScript = new Script() {};
+
+    /** Stand-in without TLS. */
+    public XMPPStandIn() throws IOException {
+        this(null);
+    }
+
+    /**
+     * @param tls require STARTTLS and authenticate with the client
+     * certificate, the server certificate is self-signed
+     */
+    public XMPPStandIn(boolean tls) throws IOException, GeneralSecurityException {
+        this(tls ? HTTPStandIn.sslContext() : null);
+    }
+
+    private XMPPStandIn(SSLContext sslContext) throws IOException {
+        mSSLContext = sslContext;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        mAcceptThread = new Thread("XMPP Stand-in") {
+            @Override
+            public void run() {
+                XMPPStandIn.this.acceptLoop();
+            }
+        };
+        mAcceptThread.setDaemon(true);
+        mAcceptThread.start();
+    }
+
+    public int port() {
+        return mServerSocket.getLocalPort();
+    }
+
+    public void setScript(Script script) {
+        mScript = script;
+    }
+
+    /** Set roster items, all with subscription 'both'. */
+    public void setRoster(Map<String, String> roster) {
+        mRoster.clear();
+        mRoster.putAll(roster);
+    }
+
+    public List<Session> sessions() {
+        return Collections.unmodifiableList(mSessions);
+    }
+
+    /** Number of messages received from all clients. */
+    public int receivedMessages() {
+        return mReceivedMessages.get();
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                Socket socket = mServerSocket.accept();
+                Session session = new Session(socket);
+                mSessions.add(session);
+                new Thread(session, "XMPP Stand-in Session").start();
+            } catch (IOException ex) {
+                if (!mServerSocket.isClosed())
+                    LOGGER.log(Level.WARNING, "can't accept", ex);
+            }
+        }
+    }
+
+    private String rosterResult(String id) {
+        StringBuilder sb = new StringBuilder("<iq type='result' id='" + id + "'>"
+                + "<query xmlns='" + NS_ROSTER + "'>");
+        for (Map.Entry<String, String> e : mRoster.entrySet()) {
+            sb.append("<item jid='").append(escape(e.getKey()))
+                    .append("' name='").append(escape(e.getValue()))
+                    .append("' subscription='both'/>");
+        }
+        return sb.append("</query></iq>").toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+        for (Session session : mSessions)
+            session.mSocket.close();
+    }
+
+    static String escape(String s) {
+        return StringEscapeUtils.escapeXml(s);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.misc;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Percentile approximation of histograms.
+ */
+public class MetricsTest {
+
+    @Test
+    public void testEmpty() {
+        Metrics.Histogram h = Metrics.histogram("test.empty");
+        assertEquals(0, h.percentile(0.5));
+        assertEquals(0, h.percentile(0.99));
+    }
+
+    @Test
+    public void testZeroAndNegative() {
+        Metrics.Histogram h = Metrics.histogram("test.zero");
+        h.record(0);
+        h.record(-5);
+        assertEquals(0, h.percentile(0));
+        assertEquals(0, h.percentile(1));
+        assertEquals(0, h.max());
+    }
+
+    @Test
+    public void testSingleValue() {
+        Metrics.Histogram h = Metrics.histogram("test.single");
+        h.record(1000);
+        // bucket bound is capped by the maximum
+        assertEquals(1000, h.percentile(0));
+        assertEquals(1000, h.percentile(0.5));
+        assertEquals(1000, h.percentile(1));
+    }
+
+    @Test
+    public void testBucketBounds() {
+        Metrics.Histogram h = Metrics.histogram("test.range");
+        for (int i = 1; i <= 100; i++)
+            h.record(i);
+
+        assertEquals(100, h.count());
+        assertEquals(50, h.mean());
+        // lowest bucket contains only 1
+        assertEquals(1, h.percentile(0));
+        assertEquals(1, h.percentile(0.01));
+        // 2 and 3
+        assertEquals(3, h.percentile(0.02));
+        // 50th value is in bucket [32, 64)
+        assertEquals(63, h.percentile(0.5));
+        // 63rd value too, 64th is in the next bucket
+        assertEquals(63, h.percentile(0.63));
+        assertEquals(100, h.percentile(0.64));
+        assertEquals(100, h.percentile(0.99));
+        assertEquals(100, h.percentile(1));
+    }
+
+    @Test
+    public void testLargeValues() {
+        Metrics.Histogram h = Metrics.histogram("test.large");
+        h.record(1L << 50);
+        h.record(Long.MAX_VALUE);
+        // both are in the last bucket
+        assertEquals(Long.MAX_VALUE, h.percentile(0.5));
+        assertEquals(Long.MAX_VALUE, h.max());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.model.message;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kontalk.misc.JID;
+import org.kontalk.misc.KonException;
+import org.kontalk.model.Contact;
+import org.kontalk.model.Model;
+import org.kontalk.model.chat.Chat;
+import org.kontalk.model.message.KonMessage.Column;
+import org.kontalk.persistence.Config;
+import org.kontalk.persistence.Database;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Database writes of message changes. Model and config are singletons,
+ * every test class runs in its own JVM.
+ */
+public class KonMessageTest {
+    @ClassRule
+    public static TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
+    private static final int MESSAGES = 10;
+
+    private static Database DB;
+    private static Model MODEL;
+    private static Chat CHAT;
+    private static List<Contact> RECEIVERS;
+
+    @BeforeClass
+    public static void setUpClass() throws KonException {
+        Path appDir = TEMP_FOLDER.getRoot().toPath();
+        Config.initialize(appDir);
+        DB = new Database(appDir);
+        MODEL = Model.setup(DB, appDir);
+
+        Contact contact = MODEL.contacts()
+                .create(JID.bare("receiver@kontalk.test"), "Receiver")
+                .orElseThrow(() -> new IllegalStateException("can't create contact"));
+        CHAT = MODEL.chats().getOrCreate(contact);
+        RECEIVERS = Collections.singletonList(contact);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        DB.close();
+    }
+
+    /**
+     * Bytes written for the sent receipt of the server: saving all columns
+     * like before vs saving only the changed columns.
+     */
+    @Test
+    public void testBytesPerReceipt() {
+        List<OutMessage> messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            String text = "message " + i + " " + StringUtils.repeat("x", 200);
+            messages.add(MODEL.createOutMessage(CHAT, RECEIVERS,
+                    MessageContent.plainText(text)).get());
+        }
+
+        long start = DB.getBytesWritten();
+        for (OutMessage message : messages)
+            message.save(Column.values());
+        long full = (DB.getBytesWritten() - start) / MESSAGES;
+
+        start = DB.getBytesWritten();
+        for (OutMessage message : messages)
+            message.setStatus(KonMessage.Status.SENT);
+        long partial = (DB.getBytesWritten() - start) / MESSAGES;
+
+        // status and server date
+        assertEquals(16, partial);
+        // plus content, coder status and server error
+        assertTrue(full > 10 * partial);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kontalk.model.message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import org.json.simple.JSONObject;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kontalk.misc.JID;
+import org.kontalk.misc.KonException;
+import org.kontalk.model.message.MessageContent.Attachment;
+import org.kontalk.model.message.MessageContent.GroupCommand;
+import org.kontalk.model.message.MessageContent.Preview;
+import org.kontalk.persistence.Database;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Binary encoding of message content and conversion of the legacy JSON
+ * encoding.
+ */
+public class MessageContentTest {
+    @ClassRule
+    public static TemporaryFolder TEMP_FOLDER = new TemporaryFolder();
+
+    private static final JID JID_A = JID.bare("a@kontalk.test");
+    private static final JID JID_B = JID.bare("b@kontalk.test");
+
+    @Test
+    public void testText() {
+        MessageContent content = roundTrip(MessageContent.plainText("hällo\nwörld"));
+        assertEquals("hällo\nwörld", content.getPlainText());
+        assertEquals("", content.getEncryptedContent());
+        assertFalse(content.isEmpty());
+        assertFalse(content.isComplex());
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(roundTrip(MessageContent.plainText("")).isEmpty());
+        assertTrue(MessageContent.fromBytes(new byte[0]).isEmpty());
+        assertTrue(MessageContent.fromBytes(null).isEmpty());
+    }
+
+    @Test
+    public void testAttachment() {
+        Attachment att = Attachment.outgoing(Paths.get("dir", "file.png"), "image/png");
+        att.updateUploaded(URI.create("https://kontalk.test/file"), "image/jpeg", 1234);
+
+        MessageContent content = roundTrip(MessageContent.outgoing("caption", att));
+        assertEquals("caption", content.getPlainText());
+        assertTrue(content.isComplex());
+        assertAttachment(att, content.getAttachment().get());
+    }
+
+    @Test
+    public void testPreview() {
+        MessageContent content = new MessageContent.Builder("", "")
+                .attachment(Attachment.incoming(URI.create("https://kontalk.test/file"), true))
+                .preview(new Preview(new byte[]{1, 2, 3}, "preview.jpg", "image/jpeg"))
+                .build();
+
+        Preview preview = roundTrip(content).getPreview().get();
+        // data is stored in a separate file
+        assertEquals("preview.jpg", preview.getFilename());
+        assertEquals("image/jpeg", preview.getMimeType());
+    }
+
+    @Test
+    public void testGroupCommand() {
+        GroupCommand command = GroupCommand.set(Arrays.asList(JID_A),
+                Arrays.asList(JID_B), "sübject");
+
+        MessageContent content = roundTrip(MessageContent.groupCommand(command));
+        assertTrue(content.isComplex());
+        assertGroupCommand(command, content.getGroupCommand().get());
+    }
+
+    @Test
+    public void testEncrypted() {
+        MessageContent content = new MessageContent.Builder("", "ZW5jcnlwdGVk").build();
+        MessageContent loaded = roundTrip(content);
+        assertEquals("ZW5jcnlwdGVk", loaded.getEncryptedContent());
+        assertFalse(loaded.isEmpty());
+
+        // decrypted content is nested
+        Attachment att = Attachment.incoming(URI.create("https://kontalk.test/file"), true);
+        GroupCommand command = GroupCommand.create(Arrays.asList(JID_A, JID_B), "group");
+        content.setDecryptedContent(new MessageContent.Builder("decrypted", "")
+                .attachment(att)
+                .groupCommand(command)
+                .build());
+
+        loaded = roundTrip(content);
+        assertEquals("", loaded.getEncryptedContent());
+        assertEquals("decrypted", loaded.getText());
+        assertAttachment(att, loaded.getAttachment().get());
+        assertGroupCommand(command, loaded.getGroupCommand().get());
+    }
+
+    @Test
+    public void testUndecodablePart() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1);
+        // plain text and encrypted content
+        out.writeInt(0);
+        out.writeInt(0);
+        // truncated attachment
+        out.writeInt(2);
+        out.write(new byte[]{0, 7});
+        // preview, group command, decrypted content
+        out.writeInt(-1);
+        out.writeInt(-1);
+        out.writeInt(-1);
+
+        MessageContent content = MessageContent.fromBytes(bytes.toByteArray());
+        assertFalse(content.isComplex());
+        assertTrue(content.isEmpty());
+        assertFalse(content.getAttachment().isPresent());
+    }
+
+    @Test
+    public void testInvalidOrdinal() throws IOException {
+        ByteArrayOutputStream part = new ByteArrayOutputStream();
+        DataOutputStream partOut = new DataOutputStream(part);
+        // unknown group command operation
+        partOut.writeByte(99);
+        partOut.writeInt(0);
+        partOut.writeInt(0);
+        partOut.writeInt(0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(-1);
+        out.writeInt(-1);
+        out.writeInt(part.size());
+        out.write(part.toByteArray());
+        out.writeInt(-1);
+
+        MessageContent content = MessageContent.fromBytes(bytes.toByteArray());
+        assertFalse(content.getGroupCommand().isPresent());
+    }
+
+    @Test
+    public void testLegacyJSON() {
+        MessageContent content = MessageContent.fromBytes(
+                legacyJSON().getBytes(StandardCharsets.UTF_8));
+        assertLegacyContent(content);
+
+        // encoding again is binary
+        byte[] converted = KonMessage.convertLegacyContent(legacyJSON());
+        assertEquals(1, converted[0]);
+        assertLegacyContent(MessageContent.fromBytes(converted));
+    }
+
+    @Test
+    public void testDatabaseMigration() throws KonException, SQLException {
+        Path dir = TEMP_FOLDER.getRoot().toPath();
+        new Database(dir).close();
+
+        // rewind to version 5 with one JSON encoded message
+        try (Connection conn = DriverManager.getConnection(
+                "jdbc:sqlite:" + dir.resolve("kontalk_db.sqlite"));
+                PreparedStatement stat = conn.prepareStatement("INSERT INTO " +
+                        KonMessage.TABLE + " VALUES (NULL, 1, 'xmpp-id', 0, 0, ?, 0, 0, 0, NULL, NULL)")) {
+            stat.setString(1, legacyJSON());
+            stat.executeUpdate();
+            try (Statement pragma = conn.createStatement()) {
+                pragma.execute("PRAGMA user_version = 5");
+            }
+        }
+
+        Database db = new Database(dir);
+        try (ResultSet rs = db.execSelectAll(KonMessage.TABLE)) {
+            assertTrue(rs.next());
+            byte[] data = rs.getBytes(KonMessage.COL_CONTENT);
+            assertEquals(1, data[0]);
+            assertLegacyContent(MessageContent.fromBytes(data));
+            assertFalse(rs.next());
+        } finally {
+            db.close();
+        }
+    }
+
+    private static MessageContent roundTrip(MessageContent content) {
+        byte[] data = content.toBytes();
+        // and again, undecoded parts are copied
+        return MessageContent.fromBytes(MessageContent.fromBytes(data).toBytes());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String legacyJSON() {
+        JSONObject att = new JSONObject();
+        att.put("url", "https://kontalk.test/file");
+        att.put("mime_type", "image/png");
+        att.put("length", 1234L);
+        att.put("file_name", "file.png");
+        att.put("encryption", 0);
+        att.put("signing", 0);
+        att.put("coder_errors", 0);
+
+        JSONObject pre = new JSONObject();
+        pre.put("filename", "preview.jpg");
+        pre.put("mime_type", "image/jpeg");
+
+        JSONObject gc = new JSONObject();
+        gc.put("op", GroupCommand.OP.CREATE.ordinal());
+        gc.put("subj", "group");
+        gc.put("added", Arrays.asList(JID_A.string(), JID_B.string()));
+        gc.put("removed", Collections.emptyList());
+
+        JSONObject decrypted = new JSONObject();
+        decrypted.put("plain_text", "decrypted");
+        decrypted.put("encrypted_content", "");
+        decrypted.put("attachment", att.toJSONString());
+        decrypted.put("preview", pre.toJSONString());
+        decrypted.put("group_command", gc.toJSONString());
+
+        JSONObject json = new JSONObject();
+        json.put("plain_text", "");
+        json.put("encrypted_content", "");
+        json.put("decrypted_content", decrypted.toJSONString());
+        return json.toJSONString();
+    }
+
+    private static void assertLegacyContent(MessageContent content) {
+        assertEquals("decrypted", content.getText());
+        Attachment att = content.getAttachment().get();
+        assertEquals(URI.create("https://kontalk.test/file"), att.getURL());
+        assertEquals("image/png", att.getMimeType());
+        assertEquals(1234, att.getLength());
+        assertEquals(Paths.get("file.png"), att.getFilePath());
+        assertEquals("preview.jpg", content.getPreview().get().getFilename());
+        assertGroupCommand(GroupCommand.create(Arrays.asList(JID_A, JID_B), "group"),
+                content.getGroupCommand().get());
+    }
+
+    private static void assertAttachment(Attachment expected, Attachment actual) {
+        assertEquals(expected.getURL(), actual.getURL());
+        assertEquals(expected.getMimeType(), actual.getMimeType());
+        assertEquals(expected.getLength(), actual.getLength());
+        assertEquals(expected.getFilePath(), actual.getFilePath());
+        assertEquals(expected.getCoderStatus().getEncryption(),
+                actual.getCoderStatus().getEncryption());
+        assertEquals(expected.getCoderStatus().getSigning(),
+                actual.getCoderStatus().getSigning());
+        assertEquals(expected.getCoderStatus().getErrors(),
+                actual.getCoderStatus().getErrors());
+    }
+
+    private static void assertGroupCommand(GroupCommand expected, GroupCommand actual) {
+        assertEquals(expected.getOperation(), actual.getOperation());
+        assertEquals(expected.getSubject(), actual.getSubject());
+        assertEquals(expected.getAdded(), actual.getAdded());
+        assertEquals(expected.getRemoved(), actual.getRemoved());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Kontalk Java client
+ *  Copyright (C) 2016 Kontalk Devteam <devteam@kontalk.org>
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.kontalk.system;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.kontalk.client.Client;
+import org.kontalk.misc.JID;
+import org.kontalk.misc.KonException;
+import org.kontalk.model.Contact;
+import org.kontalk.model.chat.Chat;
+import org.kontalk.model.chat.GroupChat;
+import org.kontalk.persistence.Config;
+
+/**
+ * Headless application control with an imported account, for tests that
+ * need the complete client stack without user interface and server.
+ *
+ * Model and configuration are process-wide, only one control can be created
+ * in a test JVM.
+ */
+public final class ControlHarness {
+
+    // same name as in account export archives
+    private static final String PRIVATE_KEY_FILENAME = "kontalk-private.asc";
+
+    private ControlHarness() {}
+
+    /**
+     * Launch headless in the application directory and import the account
+     * from private key ring data. Does not connect.
+     */
+    public static Control launchHeadless(Path appDir, MessageHandler handler, int workers,
+            byte[] privateKeyRing, char[] passphrase) throws KonException, IOException {
+        Control control = new Control(appDir);
+        // no account yet, so this does not connect
+        control.launchHeadless(handler, workers);
+
+        Path zipFile = appDir.resolve("account.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            out.putNextEntry(new ZipEntry(PRIVATE_KEY_FILENAME));
+            out.write(privateKeyRing);
+            out.closeEntry();
+        }
+
+        AtomicReference<Object> result = new AtomicReference<>();
+        AccountImporter importer = control.getViewControl().createAccountImporter();
+        importer.addObserver((o, arg) -> result.set(arg));
+        importer.fromZipFile(zipFile.toString(), passphrase);
+        Files.delete(zipFile);
+        if (result.get() instanceof KonException)
+            throw (KonException) result.get();
+
+        return control;
+    }
+
+    /**
+     * Create a contact for an entry already in the roster, with public key
+     * as received from the server. Works without connection.
+     */
+    public static Contact addContact(Control control, JID jid, byte[] publicKeyRing) {
+        Contact contact = control.createRosterContact(jid, jid.local()).orElseThrow(
+                () -> new IllegalStateException("can't create contact: " + jid));
+        contact.setSubscriptionStatus(Contact.Subscription.SUBSCRIBED);
+        control.onPGPKey(contact, publicKeyRing);
+        return contact;
+    }
+
+    /** The network client of the control. */
+    public static Client client(Control control) {
+        return control.getClient();
+    }
+
+    /**
+     * Connect to a server without certificate validation. Does not wait for
+     * the connection.
+     */
+    public static void connect(Control control, String host, int port) {
+        Config config = Config.getInstance();
+        config.setProperty(Config.SERV_HOST, host);
+        config.setProperty(Config.SERV_PORT, port);
+        config.setProperty(Config.SERV_CERT_VALIDATION, false);
+        control.getViewControl().connect();
+    }
+
+    public static void disconnect(Control control) {
+        control.getViewControl().disconnect();
+    }
+
+    public static Optional<GroupChat> createGroupChat(Control control, List<Contact> contacts,
+            String subject) {
+        return control.getViewControl().createGroupChat(contacts, subject);
+    }
+
+    public static void sendText(Control control, Chat chat, String text) {
+        control.getViewControl().sendText(chat, text);
+    }
+}